@@ -0,0 +1,119 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.NodeEntryImpl;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fact path to node attribute rules, compiled once into accessors so mapping a host only walks the
+ * configured paths. A path is a dot separated list of keys, numeric parts also index arrays,
+ * e.g. "ansible_lsb.codename" or "ansible_processor.0".
+ */
+public class AnsibleAttributeMapping {
+
+  private static class Accessor {
+    final String attribute;
+    final String[] keys;
+    final int[] indexes;
+
+    Accessor(String path, String attribute) {
+      this.attribute = attribute;
+      this.keys = path.split("\\.");
+      this.indexes = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        indexes[i] = keys[i].matches("^\\d+$") ? Integer.parseInt(keys[i]) : -1;
+      }
+    }
+
+    JsonElement get(JsonObject root) {
+      JsonElement ele = root;
+      for (int i = 0; i < keys.length; i++) {
+        if (indexes[i] >= 0 && ele.isJsonArray()) {
+          JsonArray array = ele.getAsJsonArray();
+          ele = array.size() > indexes[i] ? array.get(indexes[i]) : null;
+        } else if (ele.isJsonObject()) {
+          ele = ele.getAsJsonObject().get(keys[i]);
+        } else {
+          ele = null;
+        }
+        if (ele == null) {
+          return null;
+        }
+      }
+      return ele;
+    }
+  }
+
+  /**
+   * Parses user rules, one "path=attribute" per line or separated by commas. Empty lines and lines
+   * starting with # are ignored.
+   */
+  public static Map<String, String> parseRules(String rules) throws ConfigurationException {
+    Map<String, String> parsed = new LinkedHashMap<>();
+    if (rules == null) {
+      return parsed;
+    }
+    for (String rule : rules.split("[\\n,]")) {
+      rule = rule.trim();
+      if (rule.isEmpty() || rule.startsWith("#")) {
+        continue;
+      }
+      int separator = rule.indexOf('=');
+      if (separator <= 0 || separator == rule.length() - 1) {
+        throw new ConfigurationException("Invalid attribute mapping rule, expected path=attribute: " + rule);
+      }
+      parsed.put(rule.substring(0, separator).trim(), rule.substring(separator + 1).trim());
+    }
+    return parsed;
+  }
+
+  private final List<Accessor> accessors;
+  private final Set<String> topLevelKeys;
+
+  /**
+   * @param rules  fact path to attribute name
+   */
+  public AnsibleAttributeMapping(Map<String, String> rules) {
+    List<Accessor> accessors = new ArrayList<>();
+    Set<String> topLevelKeys = new HashSet<>();
+    for (Map.Entry<String, String> rule : rules.entrySet()) {
+      Accessor accessor = new Accessor(rule.getKey(), rule.getValue());
+      accessors.add(accessor);
+      topLevelKeys.add(accessor.keys[0]);
+    }
+    this.accessors = Collections.unmodifiableList(accessors);
+    this.topLevelKeys = Collections.unmodifiableSet(topLevelKeys);
+  }
+
+  /**
+   * @return the top level vars read by the rules
+   */
+  public Set<String> getTopLevelKeys() {
+    return topLevelKeys;
+  }
+
+  /**
+   * Sets the attributes of the node whose path holds a non empty primitive value.
+   */
+  public void apply(JsonObject root, NodeEntryImpl node) {
+    for (Accessor accessor : accessors) {
+      JsonElement ele = accessor.get(root);
+      if (ele != null && ele.isJsonPrimitive()) {
+        String value = ele.getAsString();
+        if (value.length() > 0) {
+          node.setAttribute(accessor.attribute, value);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.execution.ExecutionContext;
+import com.rundeck.plugins.ansible.util.Listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Coalesces identical ad-hoc commands dispatched to several nodes at the same time into a
+ * single ansible run. The first caller for a key waits for the batch window, runs ansible once
+ * for every node that joined meanwhile, then every caller gets the result and output of its own host.
+ */
+public class AnsibleCommandBatcher {
+
+  private static final AnsibleCommandBatcher INSTANCE = new AnsibleCommandBatcher();
+
+  public static AnsibleCommandBatcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs one ansible process against all the nodes of a batch.
+   */
+  public interface BatchRunner {
+    /**
+     * @param nodes  the nodes of the batch
+     * @return the per-host results, keyed by node name
+     */
+    Map<String, HostResult> run(List<INodeEntry> nodes) throws Exception;
+  }
+
+  public static class HostResult {
+    private final boolean success;
+    private final int returnCode;
+    private final String message;
+    private final List<String> output;
+
+    public HostResult(boolean success, int returnCode, String message, List<String> output) {
+      this.success = success;
+      this.returnCode = returnCode;
+      this.message = message;
+      this.output = output;
+    }
+
+    public boolean isSuccess() {
+      return success;
+    }
+
+    /**
+     * @return the return code reported for the host, or -1 if ansible did not report one
+     */
+    public int getReturnCode() {
+      return returnCode;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public List<String> getOutput() {
+      return output;
+    }
+  }
+
+  /**
+   * Splits the output of an ad-hoc run into per-host sections, using the host header lines
+   * printed by ansible, e.g. "node1 | CHANGED | rc=0 >>" or "node2 | UNREACHABLE! => {".
+   */
+  public static class HostOutputCollector implements Listener {
+
+    private static final Pattern HOST_HEADER = Pattern.compile(
+            "^(\\S+) \\| (SUCCESS|CHANGED|FAILED!?|UNREACHABLE!|SKIPPED)(?: \\| rc=(-?\\d+))?(?: >>| =>.*)?$");
+
+    private final Map<String, String> status = new LinkedHashMap<>();
+    private final Map<String, Integer> returnCodes = new HashMap<>();
+    private final Map<String, List<String>> output = new HashMap<>();
+    private final List<String> preamble = new ArrayList<>();
+    private List<String> current = preamble;
+
+    @Override
+    public synchronized void output(String line) {
+      Matcher header = HOST_HEADER.matcher(line);
+      if (header.matches()) {
+        String host = header.group(1);
+        status.put(host, header.group(2));
+        if (header.group(3) != null) {
+          returnCodes.put(host, Integer.parseInt(header.group(3)));
+        }
+        current = new ArrayList<>();
+        output.put(host, current);
+      }
+      current.add(line);
+    }
+
+    /**
+     * @return the lines printed before the first host header, typically warnings or errors
+     */
+    public synchronized List<String> getPreamble() {
+      return new ArrayList<>(preamble);
+    }
+
+    public synchronized Map<String, HostResult> getResults() {
+      Map<String, HostResult> results = new HashMap<>();
+      for (Map.Entry<String, String> entry : status.entrySet()) {
+        String host = entry.getKey();
+        String hostStatus = entry.getValue();
+        Integer rc = returnCodes.get(host);
+        boolean success = ("SUCCESS".equals(hostStatus) || "CHANGED".equals(hostStatus)) && (rc == null || rc == 0);
+        String message = success ? null : "Ansible reported " + hostStatus + " for host " + host;
+        results.put(host, new HostResult(success, rc != null ? rc : (success ? 0 : -1), message, output.get(host)));
+      }
+      return results;
+    }
+  }
+
+  /**
+   * Runs the ad-hoc command of the job configuration once against all the nodes of a batch.
+   *
+   * @param node     the node whose settings are used for the run
+   * @param jobConf  the configuration of the command, its limit is replaced by the batch nodes
+   * @param forks    number of hosts run in parallel, ansible's default if null
+   * @return the per-host results, keyed by node name, with a failure for hosts ansible did not report
+   */
+  public static Map<String, HostResult> runAdHoc(
+          final ExecutionContext context,
+          final INodeEntry node,
+          final Map<String, Object> jobConf,
+          final List<INodeEntry> nodes,
+          final Integer forks
+  ) throws Exception {
+
+    // the limit is set from the batch nodes, one per line in a targets file
+    Map<String, Object> batchConf = new HashMap<String, Object>(jobConf);
+    batchConf.remove(AnsibleDescribable.ANSIBLE_LIMIT);
+    batchConf.put(AnsibleDescribable.ANSIBLE_DISABLE_LIMIT, "true");
+
+    List<String> nodeNames = new ArrayList<>();
+    for (INodeEntry entry : nodes) {
+        nodeNames.add(entry.getNodename());
+    }
+
+    AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, nodes, context, context.getFramework(), batchConf);
+    HostOutputCollector collector = new HostOutputCollector();
+
+    try {
+        AnsibleRunner runner = builder.buildAnsibleRunner();
+        runner.limit(nodeNames).forks(forks).ignoreErrors(true).listener(collector);
+        runner.run();
+    } finally {
+        builder.cleanupTempFiles();
+    }
+
+    // warnings and errors printed before any host output go to the log of the node running the batch
+    List<String> preamble = collector.getPreamble();
+    for (String line : preamble) {
+        System.out.println(line);
+    }
+
+    Map<String, HostResult> results = collector.getResults();
+    for (String nodeName : nodeNames) {
+        if (!results.containsKey(nodeName)) {
+            results.put(nodeName, new HostResult(false, -1,
+                    "Ansible did not report a result for host " + nodeName, preamble));
+        }
+    }
+    return results;
+  }
+
+  private static class Batch {
+    final List<INodeEntry> nodes = new ArrayList<>();
+    final Map<String, CompletableFuture<HostResult>> results = new LinkedHashMap<>();
+  }
+
+  private final Map<String, Batch> openBatches = new HashMap<>();
+
+  /**
+   * @return true if the execution dispatches to several nodes in parallel, otherwise the nodes
+   * come one after the other and a batch would only delay each of them by its window
+   */
+  public static boolean isDispatchedInParallel(ExecutionContext context) {
+    return context.getThreadCount() > 1
+            && context.getNodes() != null && context.getNodes().getNodeNames().size() > 1;
+  }
+
+  /**
+   * Adds the node to the open batch for the key, or opens a new one, and waits for its result.
+   *
+   * @param key          identifies runs that can be coalesced
+   * @param node         the node to run on
+   * @param windowMillis how long the first caller waits for other nodes to join
+   * @param runner       runs the batch, only invoked by the first caller of the batch
+   * @return the result for the node
+   */
+  public HostResult execute(String key, INodeEntry node, long windowMillis, BatchRunner runner) throws Exception {
+    CompletableFuture<HostResult> result = new CompletableFuture<>();
+    Batch batch;
+    boolean leader = false;
+
+    synchronized (openBatches) {
+      batch = openBatches.get(key);
+      if (batch == null || batch.results.containsKey(node.getNodename())) {
+        batch = new Batch();
+        openBatches.put(key, batch);
+        leader = true;
+      }
+      batch.nodes.add(node);
+      batch.results.put(node.getNodename(), result);
+    }
+
+    if (leader) {
+      try {
+        Thread.sleep(windowMillis);
+      } catch (InterruptedException e) {
+        closeBatch(key, batch);
+        // the other nodes were not interrupted, let them run on their own
+        for (CompletableFuture<HostResult> future : batch.results.values()) {
+          if (future != result) {
+            future.complete(null);
+          }
+        }
+        throw e;
+      }
+      closeBatch(key, batch);
+      runBatch(batch, runner);
+    }
+
+    try {
+      HostResult hostResult = result.get();
+      if (hostResult == null) {
+        // the leader of the batch was interrupted before running it
+        return runAlone(node, runner);
+      }
+      return hostResult;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static HostResult runAlone(INodeEntry node, BatchRunner runner) throws Exception {
+    HostResult hostResult = runner.run(Collections.singletonList(node)).get(node.getNodename());
+    return hostResult != null ? hostResult : missingResult(node.getNodename());
+  }
+
+  private static HostResult missingResult(String nodename) {
+    return new HostResult(false, -1, "Ansible did not report a result for host " + nodename,
+            Collections.<String>emptyList());
+  }
+
+  private void closeBatch(String key, Batch batch) {
+    synchronized (openBatches) {
+      openBatches.remove(key, batch);
+    }
+  }
+
+  private void runBatch(Batch batch, BatchRunner runner) {
+    Map<String, HostResult> hostResults;
+    try {
+      hostResults = runner.run(Collections.unmodifiableList(batch.nodes));
+    } catch (Exception e) {
+      for (CompletableFuture<HostResult> future : batch.results.values()) {
+        future.completeExceptionally(e);
+      }
+      return;
+    }
+
+    for (Map.Entry<String, CompletableFuture<HostResult>> entry : batch.results.entrySet()) {
+      HostResult hostResult = hostResults.get(entry.getKey());
+      entry.getValue().complete(hostResult != null ? hostResult : missingResult(entry.getKey()));
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scripts the file copier did not copy yet, by node and remote path. Rundeck dispatches a script
+ * as a copy, a chmod, the command running it and a rm. When the copy is deferred, the node
+ * executor runs the local script with the script module, which copies and runs it in one ansible
+ * run, and skips the chmod and rm.
+ */
+public class AnsibleDeferredScripts {
+
+  private static final Map<String, File> SCRIPTS = new ConcurrentHashMap<>();
+
+  private static String key(INodeEntry node, String remotePath) {
+    return node.getNodename() + "\n" + remotePath;
+  }
+
+  public static void defer(INodeEntry node, String remotePath, File script) {
+    SCRIPTS.put(key(node, remotePath), script);
+  }
+
+  /**
+   * @return the local script deferred for the remote path, or null
+   */
+  public static File get(INodeEntry node, String remotePath) {
+    return SCRIPTS.get(key(node, remotePath));
+  }
+
+  /**
+   * Forgets the script, e.g. once it was copied or the remote path removed.
+   * @return the local script deferred for the remote path, or null
+   */
+  public static File remove(INodeEntry node, String remotePath) {
+    return SCRIPTS.remove(key(node, remotePath));
+  }
+
+  /**
+   * @return the remote path of a script deferred for the node which appears in the text, or null
+   */
+  public static String find(INodeEntry node, String text) {
+    String prefix = node.getNodename() + "\n";
+    for (String key : SCRIPTS.keySet()) {
+      if (key.startsWith(prefix) && text.contains(key.substring(prefix.length()))) {
+        return key.substring(prefix.length());
+      }
+    }
+    return null;
+  }
+}
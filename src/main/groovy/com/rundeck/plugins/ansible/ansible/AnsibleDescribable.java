@@ -111,6 +111,7 @@ public interface AnsibleDescribable extends Describable {
     public static final String ANSIBLE_IGNORE_TAGS = "ansible-ignore-tags-prefix";
     public static final String ANSIBLE_IMPORT_INVENTORY_VARS = "ansible-import-inventory-vars";
     public static final String ANSIBLE_IGNORE_INVENTORY_VARS = "ansible-ignore-inventory-vars";
+    public static final String ANSIBLE_ATTRIBUTE_MAPPING = "ansible-attribute-mapping";
     public static final String ANSIBLE_EXTRA_VARS = "ansible-extra-vars";
     public static final String ANSIBLE_EXTRA_PARAM = "ansible-extra-param";
     public static final String ANSIBLE_VAULT_PATH = "ansible-vault-path";
@@ -127,6 +128,7 @@ public interface AnsibleDescribable extends Describable {
     public static final String ANSIBLE_SSH_KEYPATH_STORAGE_PATH = "ansible-ssh-key-storage-path";
 
     public static final String ANSIBLE_SSH_TIMEOUT = "ansible-ssh-timeout";
+    public static final String ANSIBLE_SSH_CONTROL_PERSIST = "ansible-ssh-control-persist";
     public static final String ANSIBLE_SSH_USER = "ansible-ssh-user";
     public static final String ANSIBLE_SSH_AUTH_TYPE = "ansible-ssh-auth-type";
 
@@ -153,6 +155,49 @@ public interface AnsibleDescribable extends Describable {
     public static final String ANSIBLE_BASE_DIR_PATH = "ansible-base-dir-path";
     public static final String ANSIBLE_BINARIES_DIR_PATH = "ansible-binaries-dir-path";
 
+    // node executor batching
+    public static final String ANSIBLE_NODE_EXECUTOR_BATCH = "ansible-node-executor-batch";
+    public static final String ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW = "ansible-node-executor-batch-window";
+    public static final Integer DEFAULT_ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW = 250;
+    public static final String ANSIBLE_SCRIPT_DISPATCH = "ansible-script-dispatch";
+    public static final String ANSIBLE_FILE_COPIER_BATCH = "ansible-file-copier-batch";
+    public static final String ANSIBLE_FILE_COPIER_BATCH_WINDOW = "ansible-file-copier-batch-window";
+    public static final Integer DEFAULT_ANSIBLE_FILE_COPIER_BATCH_WINDOW = 250;
+    public static final String ANSIBLE_FILE_COPIER_FORKS = "ansible-file-copier-forks";
+
+    // warm worker pool
+    public static final String ANSIBLE_WORKER_POOL = "ansible-worker-pool";
+    public static final String ANSIBLE_WORKER_POOL_SIZE = "ansible-worker-pool-size";
+    public static final String ANSIBLE_WORKER_IDLE_TIMEOUT = "ansible-worker-idle-timeout";
+    public static final String ANSIBLE_WORKER_ISOLATION = "ansible-worker-isolation";
+    public static final Integer DEFAULT_ANSIBLE_WORKER_POOL_SIZE = 4;
+    public static final Integer DEFAULT_ANSIBLE_WORKER_IDLE_TIMEOUT = 300;
+
+    // resource model source fact cache
+    public static final String ANSIBLE_FACT_CACHE_DIR = "ansible-fact-cache-dir";
+    public static final String ANSIBLE_FACT_CACHE_TTL = "ansible-fact-cache-ttl";
+    public static final Integer DEFAULT_ANSIBLE_FACT_CACHE_TTL = 3600;
+    public static final String ANSIBLE_PARALLEL_INGEST_THREADS = "ansible-parallel-ingest-threads";
+    public static final String ANSIBLE_GATHER_PARTITIONS = "ansible-gather-partitions";
+    public static final String ANSIBLE_GATHER_CONCURRENCY = "ansible-gather-concurrency";
+    public static final String ANSIBLE_INVENTORY_LIST = "ansible-inventory-list";
+    public static final String ANSIBLE_NODE_SOFT_TTL = "ansible-node-soft-ttl";
+    public static final String ANSIBLE_NODE_HARD_TTL = "ansible-node-hard-ttl";
+    public static final Integer DEFAULT_ANSIBLE_NODE_HARD_TTL = 3600;
+
+    // generated inventory cache
+    public static final String ANSIBLE_INVENTORY_CACHE_DIR = "ansible-inventory-cache-dir";
+    public static final String ANSIBLE_INVENTORY_CACHE_SIZE = "ansible-inventory-cache-size";
+    public static final Integer DEFAULT_ANSIBLE_INVENTORY_CACHE_SIZE = 0;
+    public static final String ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS = "ansible-generate-inventory-limit-vars";
+
+    // playbook workflow steps
+    public static final String ANSIBLE_NODE_RESULTS = "ansible-node-results";
+    public static final String ANSIBLE_RETRY_ATTEMPTS = "ansible-retry-attempts";
+    public static final String ANSIBLE_RETRY_BACKOFF = "ansible-retry-backoff";
+    public static final String ANSIBLE_RETRY_ON = "ansible-retry-on";
+    public static final Integer DEFAULT_ANSIBLE_RETRY_BACKOFF = 5;
+
     public static final String PROJ_PROP_PREFIX = "project.";
     public static final String FWK_PROP_PREFIX = "framework.";
 
@@ -218,6 +263,13 @@ public interface AnsibleDescribable extends Describable {
     .description("Generate Ansible inventory from Rundeck nodes.")
     .build();
 
+    static final Property GENERATE_INVENTORY_LIMIT_VARS_PROP = PropertyBuilder.builder()
+    .booleanType(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS)
+    .required(false)
+    .title("Generate host vars for limited nodes only")
+    .description("When the limit lists node names, only write the attributes of those nodes as host vars in the generated inventory. Other nodes stay in the inventory and its groups without vars.")
+    .build();
+
     public static Property EXECUTABLE_PROP = PropertyUtil.freeSelect(
               ANSIBLE_EXECUTABLE,
               "Executable",
@@ -300,6 +352,14 @@ public interface AnsibleDescribable extends Describable {
             ""
     );
 
+    static final Property ATTRIBUTE_MAPPING_PROP = PropertyBuilder.builder()
+            .string(ANSIBLE_ATTRIBUTE_MAPPING)
+            .required(false)
+            .title("Attribute mapping")
+            .description("Additional facts to import as node attributes, one `path=attribute` rule per line, e.g. `ansible_lsb.id=lsb_id` or `ansible_processor.2=processor2`. A rule for a default path replaces its attribute name.")
+            .renderingOption(StringRenderingConstants.DISPLAY_TYPE_KEY, StringRenderingConstants.DisplayType.CODE)
+            .build();
+
     static final Property EXTRA_VARS_PROP = PropertyBuilder.builder()
             .string(ANSIBLE_EXTRA_VARS)
             .required(false)
@@ -318,6 +378,103 @@ public interface AnsibleDescribable extends Describable {
             ""
       );
 
+    public static Property FACT_CACHE_DIR_PROP = PropertyUtil.string(
+            ANSIBLE_FACT_CACHE_DIR,
+            "Fact cache directory",
+            "Directory where the gathered facts of every host are kept between refreshes. When set, only new hosts and hosts whose entry expired are gathered again.",
+            false,
+            null
+    );
+
+    public static Property FACT_CACHE_TTL_PROP = PropertyUtil.integer(
+            ANSIBLE_FACT_CACHE_TTL,
+            "Fact cache TTL",
+            "Time in seconds the cached facts of a host are used before gathering them again (default=3600).",
+            false,
+            String.valueOf(DEFAULT_ANSIBLE_FACT_CACHE_TTL)
+    );
+
+    public static Property PARALLEL_INGEST_THREADS_PROP = PropertyUtil.integer(
+            ANSIBLE_PARALLEL_INGEST_THREADS,
+            "Parallel fact parsing threads",
+            "Number of threads parsing the gathered facts and building the nodes. Leave empty or 1 to parse on the refresh thread.",
+            false,
+            null
+    );
+
+    public static Property GATHER_PARTITIONS_PROP = PropertyUtil.integer(
+            ANSIBLE_GATHER_PARTITIONS,
+            "Gather partitions",
+            "Split the inventory in this many partitions, each gathered by its own ansible process. Leave empty or 1 to gather all hosts with a single process.",
+            false,
+            null
+    );
+
+    public static Property INVENTORY_LIST_PROP = PropertyUtil.bool(
+            ANSIBLE_INVENTORY_LIST,
+            "Read nodes with ansible-inventory",
+            "When facts are not gathered and no limit is set, build the nodes from a single ansible-inventory --list run instead of the gather playbook. Host vars are then imported without Jinja templating, the extra ansible arguments are not passed and the fact cache is not used.",
+            false,
+            "false"
+    );
+
+    public static Property GATHER_CONCURRENCY_PROP = PropertyUtil.integer(
+            ANSIBLE_GATHER_CONCURRENCY,
+            "Gather concurrency",
+            "Maximum number of partitions gathered at the same time (default=number of partitions).",
+            false,
+            null
+    );
+
+    public static Property NODE_SOFT_TTL_PROP = PropertyUtil.integer(
+            ANSIBLE_NODE_SOFT_TTL,
+            "Nodes soft TTL",
+            "Time in seconds the last imported nodes are returned as is. Past it, they are still returned while a refresh runs in the background. Leave empty to import the nodes on every request.",
+            false,
+            null
+    );
+
+    public static Property NODE_HARD_TTL_PROP = PropertyUtil.integer(
+            ANSIBLE_NODE_HARD_TTL,
+            "Nodes hard TTL",
+            "Time in seconds after which the last imported nodes are too old to be returned, and requests wait for the refresh (default=3600).",
+            false,
+            String.valueOf(DEFAULT_ANSIBLE_NODE_HARD_TTL)
+    );
+
+    public static Property NODE_RESULTS_PROP = PropertyUtil.bool(
+            ANSIBLE_NODE_RESULTS,
+            "Report node results",
+            "Reports which nodes failed or were unreachable instead of failing every node of the step, so only those nodes are retried.",
+            false,
+            "false"
+    );
+
+    public static Property RETRY_ATTEMPTS_PROP = PropertyUtil.integer(
+            ANSIBLE_RETRY_ATTEMPTS,
+            "Retry attempts",
+            "Maximum number of attempts, each new attempt only runs against the hosts which failed. Leave empty or 1 to disable the retries.",
+            false,
+            null
+    );
+
+    public static Property RETRY_BACKOFF_PROP = PropertyUtil.integer(
+            ANSIBLE_RETRY_BACKOFF,
+            "Retry backoff",
+            "Time in seconds to wait before the first retry, doubled before each next one (default=5).",
+            false,
+            String.valueOf(DEFAULT_ANSIBLE_RETRY_BACKOFF)
+    );
+
+    static final Property RETRY_ON_PROP = PropertyBuilder.builder()
+            .select(ANSIBLE_RETRY_ON)
+            .required(false)
+            .title("Retry on")
+            .description("Which host failures are retried: unreachable hosts only, hosts with failed tasks, or both.")
+            .values(Arrays.asList(AnsibleRunner.RETRY_UNREACHABLE, AnsibleRunner.RETRY_FAILED, AnsibleRunner.RETRY_ALL))
+            .defaultValue(AnsibleRunner.RETRY_UNREACHABLE)
+            .build();
+
     static final Property VAULT_KEY_FILE_PROP = PropertyUtil.string(ANSIBLE_VAULT_PATH, "Vault Key File path",
             "File Path to the ansible vault Key to use",
             false, null);
@@ -418,6 +575,15 @@ public interface AnsibleDescribable extends Describable {
             .renderingOption(StringRenderingConstants.GROUP_NAME,"SSH Connection")
             .build();
 
+    static final Property SSH_CONTROL_PERSIST_PROP = PropertyBuilder.builder()
+            .integer(ANSIBLE_SSH_CONTROL_PERSIST)
+            .required(false)
+            .title("SSH ControlPersist")
+            .description("Keep the ssh connections to the nodes open for this many seconds after a run, in a control path directory shared by the runs of the project, so the next steps and file copies to a node reuse them. The ControlPersist options are added after the ssh_args of ansible.cfg, which keep precedence (default=disabled).")
+            .renderingOption(StringRenderingConstants.GROUPING,"SECONDARY")
+            .renderingOption(StringRenderingConstants.GROUP_NAME,"SSH Connection")
+            .build();
+
     static final Property SSH_USE_AGENT = PropertyBuilder.builder()
             .booleanType(ANSIBLE_SSH_USE_AGENT)
             .required(false)
@@ -519,4 +685,46 @@ public interface AnsibleDescribable extends Describable {
             .title("Ansible binaries directory path")
             .description("Set ansible binaries directory path.")
             .build();
+
+    static final Property NODE_EXECUTOR_BATCH_PROP = PropertyBuilder.builder()
+            .booleanType(ANSIBLE_NODE_EXECUTOR_BATCH)
+            .required(false)
+            .title("Batch commands")
+            .description("Run the same command dispatched to several nodes at the same time as a single ansible process.")
+            .build();
+
+    static final Property NODE_EXECUTOR_BATCH_WINDOW_PROP = PropertyBuilder.builder()
+            .integer(ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW)
+            .required(false)
+            .title("Batch window")
+            .description("Time in milliseconds to wait for other nodes to join a batch (default=250).")
+            .build();
+
+    static final Property FILE_COPIER_BATCH_PROP = PropertyBuilder.builder()
+            .booleanType(ANSIBLE_FILE_COPIER_BATCH)
+            .required(false)
+            .title("Batch copies")
+            .description("Copy the same file to the same destination on several nodes at the same time with a single ansible process.")
+            .build();
+
+    static final Property FILE_COPIER_BATCH_WINDOW_PROP = PropertyBuilder.builder()
+            .integer(ANSIBLE_FILE_COPIER_BATCH_WINDOW)
+            .required(false)
+            .title("Batch window")
+            .description("Time in milliseconds to wait for other nodes to join a batch (default=250).")
+            .build();
+
+    static final Property FILE_COPIER_FORKS_PROP = PropertyBuilder.builder()
+            .integer(ANSIBLE_FILE_COPIER_FORKS)
+            .required(false)
+            .title("Batch forks")
+            .description("Number of nodes a batched copy runs on in parallel (default=the ansible forks setting).")
+            .build();
+
+    static final Property SCRIPT_DISPATCH_PROP = PropertyBuilder.builder()
+            .booleanType(ANSIBLE_SCRIPT_DISPATCH)
+            .required(false)
+            .title("Run scripts with the script module")
+            .description("Copy and run script steps in a single ansible run with the script module, instead of one run to copy the script and one to run it. Requires the Ansible File Copier, Windows nodes and quoted interpreter arguments use the regular copy.")
+            .build();
 }
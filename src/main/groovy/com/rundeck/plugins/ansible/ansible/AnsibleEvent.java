@@ -0,0 +1,124 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Event written by the bundled rundeck_events callback plugin while ansible runs.
+ */
+public class AnsibleEvent {
+
+  public enum Type {
+    PLAY_START("play_start"),
+    TASK_START("task_start"),
+    RUNNER_ON_OK("runner_on_ok"),
+    RUNNER_ON_FAILED("runner_on_failed"),
+    RUNNER_ON_UNREACHABLE("runner_on_unreachable"),
+    RUNNER_ON_SKIPPED("runner_on_skipped"),
+    STATS("stats");
+
+    private final String eventName;
+
+    Type(String eventName) {
+      this.eventName = eventName;
+    }
+
+    public String getEventName() {
+      return eventName;
+    }
+
+    public static Type fromEventName(String eventName) {
+      for (Type type : values()) {
+        if (type.eventName.equals(eventName)) {
+          return type;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final Type type;
+  private final JsonObject data;
+
+  public AnsibleEvent(Type type, JsonObject data) {
+    this.type = type;
+    this.data = data;
+  }
+
+  /**
+   * @return the event of a callback plugin line, or null if its type is unknown
+   */
+  public static AnsibleEvent fromJson(JsonObject data) {
+    JsonElement event = data.get("event");
+    Type type = event != null && event.isJsonPrimitive() ? Type.fromEventName(event.getAsString()) : null;
+    return type == null ? null : new AnsibleEvent(type, data);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the raw event as written by the callback plugin
+   */
+  public JsonObject getData() {
+    return data;
+  }
+
+  public String getHost() {
+    return getString("host");
+  }
+
+  public String getTask() {
+    return getString("task");
+  }
+
+  public String getPlay() {
+    return getString("play");
+  }
+
+  public String getMessage() {
+    return getString("msg");
+  }
+
+  public boolean isChanged() {
+    JsonElement changed = data.get("changed");
+    return changed != null && changed.isJsonPrimitive() && changed.getAsBoolean();
+  }
+
+  public boolean isIgnoreErrors() {
+    JsonElement ignoreErrors = data.get("ignore_errors");
+    return ignoreErrors != null && ignoreErrors.isJsonPrimitive() && ignoreErrors.getAsBoolean();
+  }
+
+  /**
+   * @return for a stats event, the counters of each host, e.g. ok, changed, failures, unreachable
+   */
+  public Map<String, Map<String, Integer>> getStats() {
+    Map<String, Map<String, Integer>> stats = new LinkedHashMap<>();
+    JsonElement hosts = data.get("hosts");
+    if (hosts == null || !hosts.isJsonObject()) {
+      return stats;
+    }
+    for (Map.Entry<String, JsonElement> host : hosts.getAsJsonObject().entrySet()) {
+      Map<String, Integer> counters = new LinkedHashMap<>();
+      if (host.getValue().isJsonObject()) {
+        for (Map.Entry<String, JsonElement> counter : host.getValue().getAsJsonObject().entrySet()) {
+          if (counter.getValue().isJsonPrimitive() && counter.getValue().getAsJsonPrimitive().isNumber()) {
+            counters.put(counter.getKey(), counter.getValue().getAsInt());
+          }
+        }
+      }
+      stats.put(host.getKey(), counters);
+    }
+    return stats;
+  }
+
+  private String getString(String name) {
+    JsonElement value = data.get(name);
+    return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+  }
+}
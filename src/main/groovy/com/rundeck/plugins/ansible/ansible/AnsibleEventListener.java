@@ -0,0 +1,10 @@
+package com.rundeck.plugins.ansible.ansible;
+
+/**
+ * Receives the structured events of a run, in the order ansible produced them.
+ */
+public interface AnsibleEventListener {
+
+  void onEvent(AnsibleEvent event);
+
+}
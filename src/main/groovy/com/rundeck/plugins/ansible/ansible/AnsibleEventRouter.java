@@ -0,0 +1,44 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.rundeck.plugins.ansible.util.LineBatcher;
+import com.rundeck.plugins.ansible.util.Listener;
+
+/**
+ * Splits the output of a run with the rundeck_events callback enabled: event lines are parsed as
+ * they arrive and sent to the event listener, the other lines are batched for the output listener.
+ */
+public class AnsibleEventRouter extends LineBatcher {
+
+  public static final char EVENT_MARKER = '\u001e';
+
+  private final AnsibleEventListener eventListener;
+
+  public AnsibleEventRouter(Listener listener, AnsibleEventListener eventListener) {
+    super(listener);
+    this.eventListener = eventListener;
+  }
+
+  @Override
+  public void output(String line) {
+    if (line.isEmpty() || line.charAt(0) != EVENT_MARKER) {
+      super.output(line);
+      return;
+    }
+    AnsibleEvent event;
+    try {
+      JsonElement json = JsonParser.parseString(line.substring(1));
+      event = json.isJsonObject() ? AnsibleEvent.fromJson(json.getAsJsonObject()) : null;
+    } catch (JsonSyntaxException e) {
+      System.out.println("[warn] Ignoring malformed ansible event: " + e.getMessage());
+      return;
+    }
+    if (event != null) {
+      // keep the order of the events relative to the text output
+      flush();
+      eventListener.onEvent(event);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of the host vars and facts gathered by the resource model source, one file per
+ * inventory_hostname. Entries older than the TTL are reported as missing so they get gathered again.
+ */
+public class AnsibleFactCache {
+
+  private static final String SUFFIX = ".json";
+
+  private final Path directory;
+  private final long ttlMillis;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public AnsibleFactCache(Path directory, long ttlMillis) throws IOException {
+    this.directory = directory;
+    this.ttlMillis = ttlMillis;
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * @return the cached vars of the host, or null if the host is not cached or its entry expired
+   */
+  public JsonObject get(String host) {
+    Path file = getFile(host);
+    try {
+      if (!Files.exists(file)
+          || System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > ttlMillis) {
+        misses.incrementAndGet();
+        return null;
+      }
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        JsonElement json = JsonParser.parseReader(reader);
+        hits.incrementAndGet();
+        return json.getAsJsonObject();
+      }
+    } catch (Exception e) {
+      System.out.println("[warn] Ignoring unreadable fact cache entry " + file + ": " + e.getMessage());
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Returns the cached vars of the host regardless of their age, used when the host could not be gathered again.
+   */
+  public JsonObject getExpired(String host) {
+    Path file = getFile(host);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return JsonParser.parseReader(reader).getAsJsonObject();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  public void put(String host, JsonObject vars) throws IOException {
+    Path file = getFile(host);
+    Path temp = Files.createTempFile(directory, ".entry", ".tmp");
+    try {
+      Files.write(temp, vars.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Removes the entries of hosts which are no longer in the inventory.
+   */
+  public void retain(Collection<String> hosts) throws IOException {
+    Set<String> keep = new HashSet<>(hosts);
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path entry : entries) {
+        String name = entry.getFileName().toString();
+        String host = decode(name.substring(0, name.length() - SUFFIX.length()));
+        if (!keep.contains(host)) {
+          Files.deleteIfExists(entry);
+        }
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the share of lookups answered from the cache, between 0 and 1
+   */
+  public double getHitRate() {
+    long total = hits.get() + misses.get();
+    return total == 0 ? 0 : (double) hits.get() / total;
+  }
+
+  private Path getFile(String host) {
+    return directory.resolve(encode(host) + SUFFIX);
+  }
+
+  private static String encode(String host) {
+    try {
+      return URLEncoder.encode(host, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String decode(String name) {
+    try {
+      return URLDecoder.decode(name, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
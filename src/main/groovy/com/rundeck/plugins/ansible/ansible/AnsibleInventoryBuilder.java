@@ -3,35 +3,210 @@ package com.rundeck.plugins.ansible.ansible;
 import com.dtolabs.rundeck.core.common.INodeEntry;
 import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 
+/**
+ * Writes the inventory of Rundeck nodes, one host per node with all its attributes as host vars,
+ * and groups by osFamily and tags. The inventory is streamed node after node, only the group
+ * memberships are kept in memory until the hosts are written.
+ */
 public class AnsibleInventoryBuilder {
 
+    // reserved in Ansible
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("hostvars", "group_names", "groups", "environment"));
+    // group by osFamily is needed for windows hosts setup
+    private static final String[] ATTRIBUTE_GROUPS = { "osFamily", "tags" };
+    private static final Gson GSON = new Gson();
+
     private final Collection<INodeEntry> nodes;
+    private final Set<String> hostVarsNodes;
 
     public AnsibleInventoryBuilder(Collection<INodeEntry> nodes) {
+        this(nodes, null);
+    }
+
+    /**
+     * @param nodes          nodes of the inventory
+     * @param hostVarsNodes  names of the nodes whose attributes are written as host vars, all nodes if null.
+     *                       The other nodes are still listed in the inventory and its groups, without vars.
+     */
+    public AnsibleInventoryBuilder(Collection<INodeEntry> nodes, Set<String> hostVarsNodes) {
         this.nodes = nodes;
+        this.hostVarsNodes = hostVarsNodes;
     }
 
     public File buildInventory() throws ConfigurationException {
         try {
             File file = File.createTempFile("ansible-inventory", ".json");
             file.deleteOnExit();
-            PrintWriter writer = new PrintWriter(file);
-            AnsibleInventory ai = new AnsibleInventory();
-            for (INodeEntry e : nodes) {
-                ai.addHost(e.getNodename(), e.getHostname(), new HashMap<String, String>(e.getAttributes()));
-            }
-            writer.write(new Gson().toJson(ai));
-            writer.close();
+            writeInventory(file.toPath());
             return file;
+        } catch (ConfigurationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ConfigurationException("Could not write temporary inventory: " + e.getMessage());
         }
     }
+
+    public void writeInventory(Path file) throws ConfigurationException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            Map<String, Set<String>> groups = new LinkedHashMap<>();
+
+            writer.beginObject().name("all").beginObject();
+            writer.name("hosts").beginObject();
+            for (INodeEntry node : nodes) {
+                if (hostVarsNodes == null || hostVarsNodes.contains(node.getNodename())) {
+                    writeHost(writer, node);
+                } else {
+                    writer.name(node.getNodename()).beginObject().endObject();
+                }
+                for (String attribute : ATTRIBUTE_GROUPS) {
+                    String value = node.getAttributes().get(attribute);
+                    if (value != null) {
+                        for (String groupName : value.toLowerCase().split(",")) {
+                            groups.computeIfAbsent(groupName.trim(), g -> new LinkedHashSet<>()).add(node.getNodename());
+                        }
+                    }
+                }
+            }
+            writer.endObject();
+
+            writer.name("children").beginObject();
+            for (Map.Entry<String, Set<String>> group : groups.entrySet()) {
+                writer.name(group.getKey()).beginObject();
+                writer.name("hosts").beginObject();
+                for (String nodeName : group.getValue()) {
+                    writer.name(nodeName).beginObject().endObject();
+                }
+                writer.endObject();
+                writer.name("children").beginObject().endObject();
+                writer.endObject();
+            }
+            writer.endObject();
+
+            writer.endObject().endObject();
+        } catch (Exception e) {
+            throw new ConfigurationException("Could not write temporary inventory: " + e.getMessage());
+        }
+    }
+
+    private static void writeHost(JsonWriter writer, INodeEntry node) throws IOException {
+        writer.name(node.getNodename()).beginObject();
+        for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+            String name = attribute.getKey();
+            if (!RESERVED.contains(name) && !"ansible_host".equals(name)) {
+                writeValue(writer, name, attribute.getValue());
+            }
+        }
+        writeValue(writer, "ansible_host", node.getHostname());
+        writer.endObject();
+    }
+
+    /**
+     * Writes the attribute as a JSON value when it holds one, e.g. a number, boolean, list or
+     * object, and as a string otherwise. Empty values are left out. Values are read as leniently as
+     * JsonParser does, so True and FALSE are booleans and 'single quoted' values are strings.
+     */
+    private static void writeValue(JsonWriter writer, String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        String trimmed = value.trim();
+        if (trimmed.isEmpty() || "null".equals(trimmed)) {
+            return;
+        }
+        writer.name(name);
+        if ("true".equalsIgnoreCase(trimmed) || "false".equalsIgnoreCase(trimmed)) {
+            // lenient JSON reads True or FALSE as booleans as well
+            writer.value(Boolean.parseBoolean(trimmed));
+        } else if (isNumber(trimmed)) {
+            writer.jsonValue(trimmed);
+        } else if (isStructured(trimmed)) {
+            JsonElement json;
+            try {
+                json = JsonParser.parseString(trimmed);
+            } catch (JsonParseException e) {
+                writer.value(value);
+                return;
+            }
+            GSON.toJson(json, writer);
+        } else {
+            writer.value(value);
+        }
+    }
+
+    private static boolean isStructured(String value) {
+        char first = value.charAt(0);
+        char last = value.charAt(value.length() - 1);
+        return (first == '{' && last == '}') || (first == '[' && last == ']')
+                || (first == '"' && last == '"') || (first == '\'' && last == '\'' && value.length() > 1);
+    }
+
+    /**
+     * @return true if the value is a JSON number, e.g. 12, -3.5 or 1e6, but not 012 or 0x1F
+     */
+    private static boolean isNumber(String value) {
+        int i = 0;
+        int length = value.length();
+        if (value.charAt(i) == '-') {
+            i++;
+        }
+        if (i >= length) {
+            return false;
+        }
+        if (value.charAt(i) == '0') {
+            i++;
+        } else if (isDigit(value, i)) {
+            while (isDigit(value, i)) {
+                i++;
+            }
+        } else {
+            return false;
+        }
+        if (i < length && value.charAt(i) == '.') {
+            i++;
+            if (!isDigit(value, i)) {
+                return false;
+            }
+            while (isDigit(value, i)) {
+                i++;
+            }
+        }
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+                i++;
+            }
+            if (!isDigit(value, i)) {
+                return false;
+            }
+            while (isDigit(value, i)) {
+                i++;
+            }
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(String value, int i) {
+        return i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9';
+    }
 }
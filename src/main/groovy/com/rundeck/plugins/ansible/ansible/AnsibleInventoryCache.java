@@ -0,0 +1,245 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Shared cache of the inventories generated from Rundeck nodes. Files are named by a hash of the
+ * node names, hostnames and attributes, so runs over the same nodes reuse the same file. Files in
+ * use are reference counted, the least recently used unreferenced files are removed once the cache
+ * holds more than its size.
+ * <p>
+ * The directory must be private to the user running Rundeck, see {@link AnsiblePrivateDirectory}.
+ * Files left by a previous run of Rundeck are removed rather than trusted.
+ */
+public class AnsibleInventoryCache {
+
+  private static final String SUFFIX = ".json";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // part of the file names, change it when the content of the generated inventory changes
+  private static final String FORMAT_VERSION = "2";
+  private static final Map<Path, AnsibleInventoryCache> CACHES = new HashMap<>();
+
+  /**
+   * @param directory the directory of the cache, ansible-inventories in the base directory if null
+   * @param base      the base directory, see {@link AnsiblePrivateDirectory#getBase}
+   * @return the cache of the directory
+   * @throws IOException if the directory can not be created or is not private to the user running Rundeck
+   */
+  public static synchronized AnsibleInventoryCache getInstance(String directory, Path base, int size) throws IOException {
+    Path path = directory != null && directory.length() > 0
+            ? Paths.get(directory)
+            : base.resolve("ansible-inventories");
+    path = path.toAbsolutePath().normalize();
+    AnsibleInventoryCache cache = CACHES.get(path);
+    if (cache == null) {
+      cache = new AnsibleInventoryCache(path);
+      CACHES.put(path, cache);
+    }
+    // checked on every use, the directory could be replaced while Rundeck runs
+    AnsiblePrivateDirectory.check(path);
+    cache.size = size;
+    return cache;
+  }
+
+  private static class Entry {
+    final Path file;
+    int references;
+    boolean written;
+
+    Entry(Path file, boolean written) {
+      this.file = file;
+      this.written = written;
+    }
+  }
+
+  /**
+   * An inventory file in use, release it once the run is over.
+   */
+  public class Lease {
+    private final String key;
+    private final Entry entry;
+    private boolean released;
+
+    private Lease(String key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+    }
+
+    public Path getFile() {
+      return entry.file;
+    }
+
+    public void release() {
+      synchronized (AnsibleInventoryCache.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+        entry.references--;
+        evict();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return key;
+    }
+  }
+
+  private final Path directory;
+  // access ordered, the eldest entry is the least recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private int size;
+
+  private AnsibleInventoryCache(Path directory) throws IOException {
+    this.directory = AnsiblePrivateDirectory.create(directory.getParent(), directory.getFileName().toString());
+
+    // nothing tells how the files left by a previous run of Rundeck were written
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(SUFFIX) || name.endsWith(TEMP_SUFFIX)) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the inventory file of the nodes, generating it if no run generated it yet.
+   */
+  public Lease acquire(Collection<INodeEntry> nodes) throws ConfigurationException {
+    return acquire(nodes, null);
+  }
+
+  /**
+   * Returns the inventory file of the nodes with the host vars of the given nodes only, see
+   * {@link AnsibleInventoryBuilder#AnsibleInventoryBuilder(Collection, Set)}.
+   */
+  public Lease acquire(Collection<INodeEntry> nodes, Set<String> hostVarsNodes) throws ConfigurationException {
+    String key = hash(nodes, hostVarsNodes);
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry(directory.resolve(key + SUFFIX), false);
+        entries.put(key, entry);
+      }
+      entry.references++;
+    }
+    Lease lease = new Lease(key, entry);
+
+    try {
+      // only the first run over these nodes writes the file, the others wait for it
+      synchronized (entry) {
+        if (!entry.written || !Files.exists(entry.file)) {
+          Path temp = Files.createTempFile(directory, ".inventory", TEMP_SUFFIX);
+          try {
+            new AnsibleInventoryBuilder(nodes, hostVarsNodes).writeInventory(temp);
+            Files.move(temp, entry.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          } finally {
+            Files.deleteIfExists(temp);
+          }
+          entry.written = true;
+        }
+      }
+    } catch (IOException e) {
+      lease.release();
+      throw new ConfigurationException("Could not write cached inventory: " + e.getMessage());
+    } catch (ConfigurationException e) {
+      lease.release();
+      throw e;
+    }
+
+    synchronized (this) {
+      evict();
+    }
+    return lease;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    int remaining = entries.size();
+    while (remaining > size && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.references > 0) {
+        continue;
+      }
+      iterator.remove();
+      remaining--;
+      try {
+        Files.deleteIfExists(entry.file);
+      } catch (IOException e) {
+        System.out.println("[warn] Could not remove cached inventory " + entry.file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Hashes what the generated inventory is made of, independently of the order of the nodes and
+   * attributes, without building the inventory.
+   */
+  static String hash(Collection<INodeEntry> nodes, Set<String> hostVarsNodes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    update(digest, FORMAT_VERSION);
+    List<INodeEntry> sorted = new ArrayList<>(nodes);
+    sorted.sort(Comparator.comparing(INodeEntry::getNodename));
+    for (INodeEntry node : sorted) {
+      update(digest, node.getNodename());
+      if (hostVarsNodes != null && !hostVarsNodes.contains(node.getNodename())) {
+        // listed without host vars
+        digest.update((byte) 0x1c);
+        continue;
+      }
+      update(digest, node.getHostname());
+      Map<String, String> attributes = node.getAttributes();
+      if (attributes != null) {
+        for (Map.Entry<String, String> attribute : new TreeMap<>(attributes).entrySet()) {
+          update(digest, attribute.getKey());
+          update(digest, attribute.getValue());
+        }
+      }
+      digest.update((byte) 0x1d);
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    if (value == null) {
+      digest.update((byte) 0x1f);
+      return;
+    }
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0x1e);
+  }
+}
@@ -0,0 +1,111 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per host outcome of a run, built from the callback events. The stats event at the end of the
+ * play recap is authoritative, e.g. a failed task later rescued does not fail its host; without
+ * it (the run was aborted) the host results seen so far are used.
+ */
+public class AnsibleNodeResults implements AnsibleEventListener {
+
+  public enum Status {
+    OK,
+    FAILED,
+    UNREACHABLE
+  }
+
+  private final Map<String, Status> statuses = new LinkedHashMap<>();
+  private final Map<String, String> messages = new LinkedHashMap<>();
+  private boolean recap = false;
+
+  @Override
+  public synchronized void onEvent(AnsibleEvent event) {
+    String host = event.getHost();
+    switch (event.getType()) {
+      case RUNNER_ON_OK:
+      case RUNNER_ON_SKIPPED:
+        statuses.putIfAbsent(host, Status.OK);
+        break;
+      case RUNNER_ON_FAILED:
+        if (!event.isIgnoreErrors() && statuses.get(host) != Status.UNREACHABLE) {
+          statuses.put(host, Status.FAILED);
+          messages.put(host, describe(event));
+        }
+        break;
+      case RUNNER_ON_UNREACHABLE:
+        statuses.put(host, Status.UNREACHABLE);
+        messages.put(host, describe(event));
+        break;
+      case STATS:
+        recap = true;
+        for (Map.Entry<String, Map<String, Integer>> stats : event.getStats().entrySet()) {
+          Map<String, Integer> counters = stats.getValue();
+          if (counters.getOrDefault("unreachable", 0) > 0) {
+            statuses.put(stats.getKey(), Status.UNREACHABLE);
+          } else if (counters.getOrDefault("failures", 0) > 0) {
+            statuses.put(stats.getKey(), Status.FAILED);
+          } else {
+            statuses.put(stats.getKey(), Status.OK);
+            messages.remove(stats.getKey());
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * @return true once the play recap was received
+   */
+  public synchronized boolean hasRecap() {
+    return recap;
+  }
+
+  public synchronized Map<String, Status> getStatuses() {
+    return new LinkedHashMap<>(statuses);
+  }
+
+  public synchronized List<String> getHosts(Status status) {
+    List<String> hosts = new ArrayList<>();
+    for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+      if (entry.getValue() == status) {
+        hosts.add(entry.getKey());
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * @return the hosts which failed or were unreachable
+   */
+  public synchronized List<String> getFailedHosts() {
+    List<String> hosts = new ArrayList<>();
+    for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+      if (entry.getValue() != Status.OK) {
+        hosts.add(entry.getKey());
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * @return the last failure of the host, or null
+   */
+  public synchronized String getMessage(String host) {
+    return messages.get(host);
+  }
+
+  private static String describe(AnsibleEvent event) {
+    String message = event.getMessage();
+    String task = event.getTask();
+    if (message == null) {
+      return task;
+    }
+    return task != null && task.length() > 0 ? task + ": " + message : message;
+  }
+}
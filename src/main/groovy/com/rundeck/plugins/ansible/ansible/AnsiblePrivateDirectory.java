@@ -0,0 +1,86 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.Framework;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Directories kept across runs, e.g. the inventory cache or the ssh control sockets, which only the
+ * user running Rundeck may use. A directory another local user created first, or opened to other
+ * users, is refused instead of trusting what it holds.
+ */
+public class AnsiblePrivateDirectory {
+
+  private static final String VAR_DIR_PROPERTY = "framework.var.dir";
+  private static final String PRIVATE_PERMISSIONS = "rwx------";
+
+  /**
+   * @return the var directory of Rundeck if the framework tells it, else the java temp directory
+   */
+  public static Path getBase(Framework framework) {
+    if (framework != null && framework.hasProperty(VAR_DIR_PROPERTY)) {
+      return Paths.get(framework.getProperty(VAR_DIR_PROPERTY), "ansible");
+    }
+    return Paths.get(System.getProperty("java.io.tmpdir"));
+  }
+
+  /**
+   * Creates the directories below the base, readable by their owner only, or checks the existing ones.
+   *
+   * @return the last directory
+   * @throws IOException if a directory is not owned by the user running Rundeck or other users may access it
+   */
+  public static Path create(Path base, String... names) throws IOException {
+    Files.createDirectories(base);
+    Path directory = base;
+    for (String name : names) {
+      directory = directory.resolve(name);
+      if (!isPosix(base)) {
+        Files.createDirectories(directory);
+        continue;
+      }
+      try {
+        Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(PRIVATE_PERMISSIONS)));
+      } catch (FileAlreadyExistsException e) {
+        // created earlier, or by somebody else, see check
+      }
+      check(directory);
+    }
+    return directory;
+  }
+
+  /**
+   * @throws IOException if the directory is not a directory owned by the user running Rundeck and
+   * private to it
+   */
+  public static void check(Path directory) throws IOException {
+    if (!isPosix(directory)) {
+      return;
+    }
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IOException(directory + " is not a directory");
+    }
+    String owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).getName();
+    String user = System.getProperty("user.name");
+    if (!owner.equals(user)) {
+      throw new IOException(directory + " is owned by " + owner + " instead of " + user);
+    }
+    Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+    if (!PRIVATE_PERMISSIONS.equals(PosixFilePermissions.toString(permissions))) {
+      throw new IOException(directory + " has permissions " + PosixFilePermissions.toString(permissions)
+              + " instead of " + PRIVATE_PERMISSIONS);
+    }
+  }
+
+  private static boolean isPosix(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+}
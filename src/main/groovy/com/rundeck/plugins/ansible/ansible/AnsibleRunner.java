@@ -1,33 +1,35 @@
 package com.rundeck.plugins.ansible.ansible;
 
-import com.rundeck.plugins.ansible.util.Logging;
+import com.rundeck.plugins.ansible.util.OutputPump;
+import com.rundeck.plugins.ansible.util.LineBatcher;
 import com.rundeck.plugins.ansible.util.ListenerFactory;
 import com.rundeck.plugins.ansible.util.Listener;
 import com.rundeck.plugins.ansible.util.ArgumentTokenizer;
-import com.dtolabs.rundeck.core.utils.SSHAgentProcess;
 
 import java.io.*;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class AnsibleRunner {
 
   enum AnsibleCommand {
     AdHoc("ansible"),
     PlaybookPath("ansible-playbook"),
-	   PlaybookInline("ansible-playbook");
+	   PlaybookInline("ansible-playbook"),
+    InventoryList("ansible-inventory");
 
     final String command;
     AnsibleCommand(String command) {
@@ -54,6 +56,17 @@ public class AnsibleRunner {
     return ar;
   }
 
+  /**
+   * Dumps the inventory with its groups and host vars as JSON, without connecting to any host.
+   * Only the inventory, vault, config and binaries settings apply to this command.
+   * @param outputFile  file the inventory JSON is written to
+   */
+  public static AnsibleRunner inventoryList(String outputFile) {
+    AnsibleRunner ar = new AnsibleRunner(AnsibleCommand.InventoryList);
+    ar.inventoryOutput = outputFile;
+    return ar;
+  }
+
   /**
    * Splits up a command and its arguments inf form of a string into a list of strings.
    * @param commandline  String with a possibly complex command and arguments
@@ -73,6 +86,7 @@ public class AnsibleRunner {
   private final AnsibleCommand type;
 
   private String playbook;
+  private String inventoryOutput;
   private String inventory;
   private String module;
   private String arg;
@@ -87,10 +101,14 @@ public class AnsibleRunner {
   private String sshUser;
   private String sshPrivateKey;
   private Integer sshTimeout;
+  private Integer forks;
   private boolean sshUseAgent = false;
   private String sshPassphrase;
-  private SSHAgentProcess sshAgent;
+  private AnsibleSshAgentManager.Lease sshAgent;
   private Integer sshAgentTimeToLive = 0;
+  private String sshAgentScope;
+  private int sshControlPersist = 0;
+  private Path sshControlPathDirectory;
 
   // ansible become args
   protected Boolean become = Boolean.FALSE;
@@ -109,9 +127,34 @@ public class AnsibleRunner {
   private Map<String, String> options = new HashMap<>();
   private String executable = "sh";
 
+  private boolean workerPool = false;
+  private int workerPoolSize = AnsibleDescribable.DEFAULT_ANSIBLE_WORKER_POOL_SIZE;
+  private int workerIdleTimeout = AnsibleDescribable.DEFAULT_ANSIBLE_WORKER_IDLE_TIMEOUT;
+  private String workerIsolation = AnsibleWorkerPool.ISOLATION_FORK;
+
+  public static final String RETRY_UNREACHABLE = "unreachable";
+  public static final String RETRY_FAILED = "failed";
+  public static final String RETRY_ALL = "all";
+
+  private int retryAttempts = 1;
+  private List<String> failedHosts = new ArrayList<>();
+  private int retryBackoff = 0;
+  private String retryOn = RETRY_UNREACHABLE;
+
   protected String configFile;
 
   private Listener listener;
+  private AnsibleEventListener eventListener;
+  private String stdoutCallback;
+
+  /**
+   * Bundled stdout callback printing the results of the script module like the shell module.
+   */
+  public static final String SCRIPT_CALLBACK = "rundeck_script";
+
+  private static final String EVENT_CALLBACK = "rundeck_events";
+  private static final String[] BUNDLED_CALLBACKS = {EVENT_CALLBACK, SCRIPT_CALLBACK};
+  private static Path callbackPluginsDirectory;
 
   private AnsibleRunner(AnsibleCommand type) {
     this.type = type;
@@ -215,6 +258,27 @@ public class AnsibleRunner {
     return this;
   }
 
+  /**
+   * Shares the ssh-agent with the other runs of the same scope, usually the execution, instead of
+   * starting one for this run only.
+   */
+  public AnsibleRunner sshAgentScope(String scope) {
+    sshAgentScope = scope;
+    return this;
+  }
+
+  /**
+   * Keeps the ssh master connections open for the given time after the run, with their sockets in
+   * the given directory, so the next runs using the same directory reuse them.
+   */
+  public AnsibleRunner sshControlPersist(Integer seconds, Path controlPathDirectory) {
+    if (seconds != null && seconds > 0 && controlPathDirectory != null) {
+      sshControlPersist = seconds;
+      sshControlPathDirectory = controlPathDirectory;
+    }
+    return this;
+  }
+
   public AnsibleRunner sshPassphrase(String passphrase) {
     if (passphrase != null && passphrase.length() > 0) {
       sshPassphrase = passphrase;
@@ -229,6 +293,16 @@ public class AnsibleRunner {
     return this;
   }
 
+  /**
+   * Number of hosts ansible runs on in parallel, ansible's default if not set.
+   */
+  public AnsibleRunner forks(Integer forks) {
+    if (forks != null && forks > 0) {
+      this.forks = forks;
+    }
+    return this;
+  }
+
   public AnsibleRunner become(Boolean useBecome) {
     if (useBecome != null) {
       become = useBecome;
@@ -275,6 +349,25 @@ public class AnsibleRunner {
     return this;
   }
 
+  /**
+   * Enable the bundled rundeck_events callback plugin and send its events to the listener,
+   * event lines are then kept out of the output listener.
+   * @param eventListener  the listener which will receive the play, task, host result and stats events
+   */
+  public AnsibleRunner eventListener(AnsibleEventListener eventListener) {
+    this.eventListener = eventListener;
+    return this;
+  }
+
+  /**
+   * Use one of the bundled stdout callback plugins, e.g. {@link #SCRIPT_CALLBACK}, instead of the
+   * one configured for ansible.
+   */
+  public AnsibleRunner stdoutCallback(String stdoutCallback) {
+    this.stdoutCallback = stdoutCallback;
+    return this;
+  }
+
   /**
    * Run Ansible with -vvvv and print the command and output to the console / log
    */
@@ -342,6 +435,73 @@ public class AnsibleRunner {
     return this;
   }
 
+  /**
+   * Run ansible on a warm worker of {@link AnsibleWorkerPool} instead of starting a new process.
+   */
+  public AnsibleRunner workerPool(Boolean workerPool) {
+    if (workerPool != null) {
+      this.workerPool = workerPool;
+    }
+    return this;
+  }
+
+  public AnsibleRunner workerPoolSize(Integer size) {
+    if (size != null && size > 0) {
+      workerPoolSize = size;
+    }
+    return this;
+  }
+
+  /**
+   * Seconds after which an unused worker is stopped.
+   */
+  public AnsibleRunner workerIdleTimeout(Integer timeout) {
+    if (timeout != null && timeout > 0) {
+      workerIdleTimeout = timeout;
+    }
+    return this;
+  }
+
+  /**
+   * Either "fork", each run is forked from the warm worker, or "process", each worker serves a single run.
+   */
+  public AnsibleRunner workerIsolation(String isolation) {
+    if (isolation != null && isolation.length() > 0) {
+      workerIsolation = isolation;
+    }
+    return this;
+  }
+
+  /**
+   * Number of times the hosts which failed are run again, 1 disables the retries.
+   */
+  public AnsibleRunner retryAttempts(Integer attempts) {
+    if (attempts != null && attempts > 0) {
+      retryAttempts = attempts;
+    }
+    return this;
+  }
+
+  /**
+   * Seconds to wait before the first retry, doubled before each next one.
+   */
+  public AnsibleRunner retryBackoff(Integer seconds) {
+    if (seconds != null && seconds >= 0) {
+      retryBackoff = seconds;
+    }
+    return this;
+  }
+
+  /**
+   * Which host failures are retried: unreachable, failed or all.
+   */
+  public AnsibleRunner retryOn(String failures) {
+    if (failures != null && failures.length() > 0) {
+      retryOn = failures;
+    }
+    return this;
+  }
+
   public void deleteTempDirectory(Path tempDirectory) throws IOException {
       Files.walkFileTree(tempDirectory, new SimpleFileVisitor<Path>() {
         @Override
@@ -364,18 +524,173 @@ public class AnsibleRunner {
     }
     done = true;
 
+    if (retryAttempts > 1) {
+      return runWithRetries();
+    }
+    return runAttempt();
+  }
+
+  /**
+   * Runs again only the hosts whose failure class is retried, limited with a new targets file,
+   * until they all succeed or the attempts are exhausted. Hosts failing for another reason are
+   * not retried but still fail the run.
+   */
+  private int runWithRetries() throws Exception {
+    AnsibleEventListener callerEventListener = eventListener;
+    List<String> callerLimits = new ArrayList<>(limits);
+    boolean callerRetainTempDirectory = retainTempDirectory;
+    Map<String, AnsibleNodeResults.Status> statuses = new LinkedHashMap<>();
+    // every attempt runs in the same directory, whether it was given or created by the first attempt
+    retainTempDirectory = true;
+
+    try {
+      for (int attempt = 1; ; attempt++) {
+        final AnsibleNodeResults attemptResults = new AnsibleNodeResults();
+        eventListener = event -> {
+          attemptResults.onEvent(event);
+          if (callerEventListener != null) {
+            callerEventListener.onEvent(event);
+          }
+        };
+
+        AnsibleException failure = null;
+        try {
+          runAttempt();
+        } catch (AnsibleException e) {
+          if (e.getFailureReason() != AnsibleException.AnsibleFailureReason.AnsibleNonZero) {
+            throw e;
+          }
+          failure = e;
+        }
+        statuses.putAll(attemptResults.getStatuses());
+
+        List<String> retry = new ArrayList<>();
+        for (String host : attemptResults.getFailedHosts()) {
+          if (isRetried(attemptResults.getStatuses().get(host))) {
+            retry.add(host);
+          }
+        }
+        if (result == 0 || retry.isEmpty() || attempt >= retryAttempts) {
+          if (failure != null) {
+            throw failure;
+          }
+          if (!ignoreErrors && !getNotOkHosts(statuses).isEmpty()) {
+            // hosts which failed without being retried in an earlier attempt still fail the run
+            throw new AnsibleException("ERROR: Ansible execution failed on hosts: " + String.join(",", getNotOkHosts(statuses)),
+                    AnsibleException.AnsibleFailureReason.AnsibleNonZero);
+          }
+          return result;
+        }
+
+        long backoff = retryBackoff * 1000L << Math.min(attempt - 1, 16);
+        System.out.println("[warn] Retrying " + retry.size() + " host(s) after attempt " + attempt + " of "
+                + retryAttempts + ": " + String.join(",", retry));
+        if (backoff > 0) {
+          Thread.sleep(backoff);
+        }
+
+        limits.clear();
+        limits.addAll(retry);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AnsibleException("ERROR: Ansible Execution Interrupted.", e, AnsibleException.AnsibleFailureReason.Interrupted);
+    } finally {
+      eventListener = callerEventListener;
+      limits.clear();
+      limits.addAll(callerLimits);
+      failedHosts = getNotOkHosts(statuses);
+      retainTempDirectory = callerRetainTempDirectory;
+      if (usingTempDirectory && !retainTempDirectory && baseDirectory != null && Files.exists(baseDirectory)) {
+        deleteTempDirectory(baseDirectory);
+      }
+    }
+  }
+
+  /**
+   * Reads the ssh_args of the [ssh_connection] section of the ansible.cfg ansible uses: the one
+   * named by ANSIBLE_CONFIG, else the one of the working directory, the home directory or /etc/ansible.
+   *
+   * @return the configured ssh_args, or null if none
+   */
+  static String getConfiguredSshArgs(Map<String, String> environment, Path directory) {
+    List<Path> candidates = new ArrayList<>();
+    String config = environment.get("ANSIBLE_CONFIG");
+    if (config != null && config.length() > 0) {
+      candidates.add(Paths.get(config));
+    }
+    if (directory != null) {
+      candidates.add(directory.resolve("ansible.cfg"));
+    }
+    candidates.add(Paths.get(System.getProperty("user.home"), ".ansible.cfg"));
+    candidates.add(Paths.get("/etc/ansible/ansible.cfg"));
+
+    for (Path candidate : candidates) {
+      if (!Files.isRegularFile(candidate)) {
+        continue;
+      }
+      try {
+        String section = null;
+        for (String line : Files.readAllLines(candidate)) {
+          String trimmed = line.trim();
+          if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+            section = trimmed.substring(1, trimmed.length() - 1).trim();
+          } else if ("ssh_connection".equals(section) && !trimmed.startsWith("#") && !trimmed.startsWith(";")) {
+            int equals = trimmed.indexOf('=');
+            int colon = trimmed.indexOf(':');
+            int separator = equals < 0 || (colon >= 0 && colon < equals) ? colon : equals;
+            if (separator > 0 && "ssh_args".equals(trimmed.substring(0, separator).trim())) {
+              String value = trimmed.substring(separator + 1).trim();
+              return value.isEmpty() ? null : value;
+            }
+          }
+        }
+      } catch (IOException e) {
+        System.out.println("[warn] Could not read " + candidate + ": " + e.getMessage());
+      }
+      // ansible only reads the first configuration file found
+      return null;
+    }
+    return null;
+  }
+
+  /**
+   * @return the hosts whose last known status, over all the attempts, is not OK
+   */
+  static List<String> getNotOkHosts(Map<String, AnsibleNodeResults.Status> statuses) {
+    List<String> hosts = new ArrayList<>();
+    for (Map.Entry<String, AnsibleNodeResults.Status> entry : statuses.entrySet()) {
+      if (entry.getValue() != AnsibleNodeResults.Status.OK) {
+        hosts.add(entry.getKey());
+      }
+    }
+    return hosts;
+  }
+
+  private boolean isRetried(AnsibleNodeResults.Status status) {
+    if (RETRY_ALL.equals(retryOn)) {
+      return true;
+    }
+    if (RETRY_FAILED.equals(retryOn)) {
+      return status == AnsibleNodeResults.Status.FAILED;
+    }
+    return status == AnsibleNodeResults.Status.UNREACHABLE;
+  }
+
+  private int runAttempt() throws Exception {
+    // the files of the run are removed with their directory, whatever happens to the run
+    try (AnsibleStagingDirectory staging = AnsibleStagingDirectory.create()) {
+      return runAttempt(staging);
+    }
+  }
+
+  private int runAttempt(AnsibleStagingDirectory staging) throws Exception {
     if (baseDirectory == null) {
       // Use a temporary directory and mark it for possible removal later
       this.usingTempDirectory = true;
       baseDirectory = Files.createTempDirectory("ansible-rundeck");
     }
 
-    File tempPlaybook = null;
-    File tempFile = null;
-    File tempVaultFile = null;
-    File tempPkFile = null;
-    File tempVarsFile = null;
-
     List<String> procArgs = new ArrayList<>();
     String ansibleCommand = type.command;
     if (ansibleBinariesDirectory != null) {
@@ -400,9 +715,12 @@ public class AnsibleRunner {
       procArgs.add(playbook);
     } else if (type == AnsibleCommand.PlaybookInline) {
 
-	  tempPlaybook = File.createTempFile("ansible-runner", "playbook");
-	  Files.write(tempPlaybook.toPath(), playbook.toString().getBytes());
-	  procArgs.add(tempPlaybook.getAbsolutePath());
+	  Path tempPlaybook = staging.write("playbook.yml", playbook.getBytes());
+	  procArgs.add(tempPlaybook.toAbsolutePath().toString());
+    } else if (type == AnsibleCommand.InventoryList) {
+      procArgs.add("--list");
+      procArgs.add("--output");
+      procArgs.add(inventoryOutput);
     }
 
     if (inventory != null && inventory.length() > 0) {
@@ -414,15 +732,14 @@ public class AnsibleRunner {
       procArgs.add(limits.get(0));
 
     } else if (limits != null && limits.size() > 1) {
-      tempFile = File.createTempFile("ansible-runner", "targets");
       StringBuilder sb = new StringBuilder();
       for (String limit : limits) {
         sb.append(limit).append("\n");
       }
-      Files.write(tempFile.toPath(), sb.toString().getBytes());
+      Path tempFile = staging.write("targets", sb.toString().getBytes());
 
       procArgs.add("-l");
-      procArgs.add("@" + tempFile.getAbsolutePath());
+      procArgs.add("@" + tempFile.toAbsolutePath());
     }
 
     if (debug == Boolean.TRUE) {
@@ -430,30 +747,23 @@ public class AnsibleRunner {
     }
 
     if (extraVars != null && extraVars.length() > 0) {
-    	tempVarsFile = File.createTempFile("ansible-runner", "extra-vars");
-    	Files.write(tempVarsFile.toPath(), extraVars.getBytes());
-        procArgs.add("--extra-vars" + "=" + "@" + tempVarsFile.getAbsolutePath());
+    	Path tempVarsFile = staging.write("extra-vars", extraVars.getBytes());
+        procArgs.add("--extra-vars" + "=" + "@" + tempVarsFile.toAbsolutePath());
     }
 
     if (vaultPass != null && vaultPass.length() > 0) {
-      tempVaultFile = File.createTempFile("ansible-runner", "vault");
-      Files.write(tempVaultFile.toPath(), vaultPass.getBytes());
-      procArgs.add("--vault-password-file" + "=" + tempVaultFile.getAbsolutePath());
+      Path tempVaultFile = staging.write("vault", vaultPass.getBytes());
+      procArgs.add("--vault-password-file" + "=" + tempVaultFile.toAbsolutePath());
     }
 
     if (sshPrivateKey != null && sshPrivateKey.length() > 0) {
-       tempPkFile = File.createTempFile("ansible-runner", "id_rsa");
        // Only the owner can read and write
-       Set<PosixFilePermission> perms = new HashSet<PosixFilePermission>();
-       perms.add(PosixFilePermission.OWNER_READ);
-       perms.add(PosixFilePermission.OWNER_WRITE);
-       Files.setPosixFilePermissions(tempPkFile.toPath(), perms);
-
-       Files.write(tempPkFile.toPath(), sshPrivateKey.getBytes());
-       procArgs.add("--private-key" + "=" + tempPkFile.toPath());
+       Path tempPkFile = staging.write("id_rsa", sshPrivateKey.getBytes());
+       procArgs.add("--private-key" + "=" + tempPkFile);
 
        if(sshUseAgent){
-         registerKeySshAgent(tempPkFile.getAbsolutePath());
+         sshAgent = AnsibleSshAgentManager.getInstance()
+                 .acquire(sshAgentScope, sshPrivateKey, sshPassphrase, sshAgentTimeToLive, debug);
        }
     }
 
@@ -469,6 +779,10 @@ public class AnsibleRunner {
       procArgs.add("--timeout" + "=" + sshTimeout);
     }
 
+    if (forks != null) {
+      procArgs.add("--forks" + "=" + forks);
+    }
+
     if (become == true) {
        procArgs.add("--become");
        if (becomePassword != null && becomePassword.length() > 0) {
@@ -497,13 +811,9 @@ public class AnsibleRunner {
         System.out.println(" procArgs: " +  procArgs);
     }
 
-    // execute the ansible process
-    ProcessBuilder processBuilder = new ProcessBuilder()
-      .command(procArgs)
-      .directory(baseDirectory.toFile()); // set cwd
     Process proc = null;
 
-    Map<String, String> processEnvironment = processBuilder.environment();
+    Map<String, String> processEnvironment = new HashMap<>(System.getenv());
 
     if (configFile != null && configFile.length() > 0) {
       if (debug) {
@@ -521,15 +831,38 @@ public class AnsibleRunner {
       processEnvironment.put("SSH_AUTH_SOCK", this.sshAgent.getSocketPath());
     }
 
+    if (sshControlPersist > 0) {
+      // ssh_args configured by the environment or the options win
+      if (!processEnvironment.containsKey("ANSIBLE_SSH_ARGS")) {
+        // the environment replaces the ssh_args of ansible.cfg, keep them first as ssh uses the
+        // first value given for an option
+        String persist = "-o ControlMaster=auto -o ControlPersist=" + sshControlPersist + "s";
+        String configured = getConfiguredSshArgs(processEnvironment, baseDirectory);
+        processEnvironment.put("ANSIBLE_SSH_ARGS", configured != null ? configured + " " + persist : "-C " + persist);
+      }
+      processEnvironment.putIfAbsent("ANSIBLE_SSH_CONTROL_PATH_DIR", sshControlPathDirectory.toString());
+    }
+
     try {
-      proc = processBuilder.start();
-      OutputStream stdin = proc.getOutputStream();
-      OutputStreamWriter stdinw = new OutputStreamWriter(stdin);
+      if (eventListener != null) {
+        enableEventCallback(processEnvironment);
+        if (type == AnsibleCommand.AdHoc && stdoutCallback == null) {
+          // loading callback plugins makes ad-hoc commands use the stdout_callback of the
+          // configuration, keep the minimal output they print by default
+          processEnvironment.put("ANSIBLE_STDOUT_CALLBACK", "minimal");
+        }
+      }
+      if (stdoutCallback != null) {
+        addCallbackPluginsDirectory(processEnvironment);
+        processEnvironment.put("ANSIBLE_STDOUT_CALLBACK", stdoutCallback);
+        processEnvironment.put("ANSIBLE_LOAD_CALLBACK_PLUGINS", "1");
+      }
+
+      StringBuilder input = new StringBuilder();
 
       if (sshUsePassword) {
          if (sshPass != null && sshPass.length() > 0) {
-        	 stdinw.write(sshPass+"\n");
-        	 stdinw.flush();
+        	 input.append(sshPass).append("\n");
          } else {
             throw new AnsibleException("Missing ssh password.",AnsibleException.AnsibleFailureReason.AnsibleNonZero);
          }
@@ -537,29 +870,62 @@ public class AnsibleRunner {
 
       if (become) {
          if (becomePassword != null && becomePassword.length() > 0) {
-        	 stdinw.write(becomePassword+"\n");
-        	 stdinw.flush();
+        	 input.append(becomePassword).append("\n");
          }
       }
 
-      stdinw.close();
-      Thread errthread = Logging.copyStreamThread(proc.getErrorStream(), listener);
-      Thread outthread = Logging.copyStreamThread(proc.getInputStream(), listener);
-      errthread.start();
-      outthread.start();
-      result = proc.waitFor();
-      outthread.join();
-      errthread.join();
+      // verbose runs print a lot of lines, hand them to the listener in batches
+      LineBatcher output = eventListener != null
+              ? new AnsibleEventRouter(listener, eventListener)
+              : new LineBatcher(listener);
+
+      if (workerPool) {
+        AnsibleWorkerPool pool = AnsibleWorkerPool.getPool(ansibleBinariesDirectory, processEnvironment,
+                baseDirectory, workerPoolSize, workerIdleTimeout, workerIsolation);
+        try {
+          result = pool.run(procArgs, baseDirectory, processEnvironment, input.toString(), output);
+        } finally {
+          output.flush();
+        }
+      } else {
+        // execute the ansible process
+        ProcessBuilder processBuilder = new ProcessBuilder()
+          .command(procArgs)
+          .directory(baseDirectory.toFile()); // set cwd
+        processBuilder.environment().putAll(processEnvironment);
+
+        proc = processBuilder.start();
+        OutputStream stdin = proc.getOutputStream();
+        OutputStreamWriter stdinw = new OutputStreamWriter(stdin);
+        stdinw.write(input.toString());
+        stdinw.flush();
+        stdinw.close();
+
+        // stdout and stderr are read by the shared pump, lines are handed to the listener from this thread
+        OutputPump.Channel channel = OutputPump.getInstance().register(OutputPump.DEFAULT_CAPACITY,
+                proc.getInputStream(), proc.getErrorStream());
+        try {
+          while (proc.isAlive()) {
+            String line = channel.poll(50, TimeUnit.MILLISECONDS);
+            if (line != null) {
+              output.output(line);
+            } else {
+              output.flushIfDue();
+            }
+          }
+          for (String line : channel.close()) {
+            output.output(line);
+          }
+        } finally {
+          channel.cancel();
+          output.flush();
+        }
+        result = proc.waitFor();
+      }
       System.err.flush();
       System.out.flush();
 
 
-      if(sshUseAgent){
-        if(sshAgent!=null){
-          sshAgent.stopAgent();
-        }
-      }
-
       if (result != 0) {
     	  if (ignoreErrors == false) {
               throw new AnsibleException("ERROR: Ansible execution returned with non zero code.",
@@ -590,20 +956,10 @@ public class AnsibleRunner {
           proc.destroy();
         }
 
-        if (tempFile != null && !tempFile.delete()) {
-          tempFile.deleteOnExit();
-        }
-        if (tempPkFile != null && !tempPkFile.delete()) {
-          tempPkFile.deleteOnExit();
-        }
-        if (tempVarsFile != null && !tempVarsFile.delete()) {
-          tempVarsFile.deleteOnExit();
-        }
-        if (tempVaultFile != null && !tempVaultFile.delete()) {
-          tempVaultFile.deleteOnExit();
-        }
-        if (tempPlaybook != null && !tempPlaybook.delete()) {
-          tempPlaybook.deleteOnExit();
+        if(sshAgent!=null){
+          // the agent is kept for the next runs of the execution
+          sshAgent.release();
+          sshAgent = null;
         }
 
         if (usingTempDirectory && !retainTempDirectory) {
@@ -618,70 +974,57 @@ public class AnsibleRunner {
     return result;
   }
 
-  public boolean registerKeySshAgent(String keyPath) throws AnsibleException, Exception {
+  /**
+   * @return after a run with retries, the hosts which still failed or were unreachable after the last attempt
+   */
+  public List<String> getFailedHosts() {
+    return failedHosts;
+  }
 
-    if(sshAgent==null){
-      sshAgent = new SSHAgentProcess(this.sshAgentTimeToLive);
+  /**
+   * Adds the bundled rundeck_events callback plugin to the environment of the run, keeping the
+   * callback plugins and enabled callbacks already configured through the options.
+   */
+  private static void enableEventCallback(Map<String, String> environment) throws IOException {
+    addCallbackPluginsDirectory(environment);
+
+    // ansible 2.11 renamed the whitelist, set both so older versions load the callback as well
+    for (String name : new String[]{"ANSIBLE_CALLBACKS_ENABLED", "ANSIBLE_CALLBACK_WHITELIST"}) {
+      String enabled = environment.get(name);
+      environment.put(name, enabled != null && enabled.length() > 0
+              ? enabled + "," + EVENT_CALLBACK : EVENT_CALLBACK);
     }
+    // ad-hoc commands only load callback plugins when asked to
+    environment.put("ANSIBLE_LOAD_CALLBACK_PLUGINS", "1");
+  }
 
-    List<String> procArgs = new ArrayList<>();
-    procArgs.add("/usr/bin/ssh-add");
-    procArgs.add(keyPath);
-
-    if (debug) {
-      System.out.println("ssh-agent socket " + sshAgent.getClass());
-      System.out.println(" registerKeySshAgent: "+procArgs.toString());
+  private static void addCallbackPluginsDirectory(Map<String, String> environment) throws IOException {
+    String directory = getCallbackPluginsDirectory().toString();
+    String plugins = environment.get("ANSIBLE_CALLBACK_PLUGINS");
+    if (plugins == null || plugins.length() == 0) {
+      environment.put("ANSIBLE_CALLBACK_PLUGINS", directory);
+    } else if (!Arrays.asList(plugins.split(":")).contains(directory)) {
+      environment.put("ANSIBLE_CALLBACK_PLUGINS", plugins + ":" + directory);
     }
+  }
 
-    // execute the ssh-agent add process
-    ProcessBuilder processBuilder = new ProcessBuilder()
-            .command(procArgs)
-            .directory(baseDirectory.toFile());
-    Process proc = null;
-
-    Map<String, String> env = processBuilder.environment();
-    env.put("SSH_AUTH_SOCK", this.sshAgent.getSocketPath());
-
-    try {
-      proc = processBuilder.start();
-
-      OutputStream stdin = proc.getOutputStream();
-      OutputStreamWriter stdinw = new OutputStreamWriter(stdin);
-
-      try{
-        if (sshPassphrase != null && sshPassphrase.length() > 0) {
-          stdinw.write(sshPassphrase+"\n");
-          stdinw.flush();
+  private static synchronized Path getCallbackPluginsDirectory() throws IOException {
+    if (callbackPluginsDirectory == null) {
+      Path directory = Files.createTempDirectory("ansible-callbacks");
+      directory.toFile().deleteOnExit();
+      for (String callback : BUNDLED_CALLBACKS) {
+        Path plugin = directory.resolve(callback + ".py");
+        try (InputStream in = AnsibleRunner.class.getClassLoader().getResourceAsStream(callback + ".py")) {
+          if (in == null) {
+            throw new IOException("missing " + callback + ".py resource");
+          }
+          Files.copy(in, plugin, StandardCopyOption.REPLACE_EXISTING);
         }
-      } catch (Exception  e) {
-        if (debug) {
-          System.out.println("not prompt enable");
-        }
-      }
-
-      int exitCode = proc.waitFor();
-
-     if (exitCode != 0) {
-          throw new AnsibleException("ERROR: ssh-add returns with non zero code:" + procArgs.toString(),
-                  AnsibleException.AnsibleFailureReason.AnsibleNonZero);
-      }
-
-    } catch (IOException  e) {
-      throw new AnsibleException("ERROR: error adding private key to ssh-agent." + procArgs.toString(), e, AnsibleException.AnsibleFailureReason.Unknown);
-    } catch (InterruptedException e) {
-      if(proc!=null) {
-        proc.destroy();
-      }
-      Thread.currentThread().interrupt();
-      throw new AnsibleException("ERROR: error adding private key to ssh-agen Interrupted.", e, AnsibleException.AnsibleFailureReason.Interrupted);
-    }finally {
-      // Make sure to always cleanup on failure and success
-      if(proc!=null) {
-        proc.destroy();
+        plugin.toFile().deleteOnExit();
       }
+      callbackPluginsDirectory = directory;
     }
-
-    return true;
+    return callbackPluginsDirectory;
   }
 
 }
@@ -13,33 +13,82 @@ import com.dtolabs.rundeck.core.common.Framework;
 import com.dtolabs.rundeck.core.dispatcher.DataContextUtils;
 import com.dtolabs.rundeck.core.execution.ExecutionContext;
 import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
-import com.dtolabs.rundeck.core.storage.ResourceMeta;
+import com.rundeck.plugins.ansible.util.AnsibleUtil;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
-import org.rundeck.storage.api.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Set;
+import java.util.HashSet;
 import java.util.Map;
 
-import org.rundeck.storage.api.PathUtil;
 import org.rundeck.storage.api.StorageException;
 
 public class AnsibleRunnerBuilder {
 
+    // every setting buildAnsibleRunner reads, except the limit which a batch replaces by its nodes
+    private static final String[] RUNNER_SETTINGS = {
+            AnsibleDescribable.ANSIBLE_PLAYBOOK_PATH,
+            AnsibleDescribable.ANSIBLE_PLAYBOOK_INLINE,
+            AnsibleDescribable.ANSIBLE_MODULE,
+            AnsibleDescribable.ANSIBLE_MODULE_ARGS,
+            AnsibleDescribable.ANSIBLE_INVENTORY,
+            AnsibleDescribable.ANSIBLE_INVENTORY_INLINE,
+            AnsibleDescribable.ANSIBLE_GENERATE_INVENTORY,
+            AnsibleDescribable.ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,
+            AnsibleDescribable.ANSIBLE_INVENTORY_CACHE_SIZE,
+            AnsibleDescribable.ANSIBLE_INVENTORY_CACHE_DIR,
+            AnsibleDescribable.ANSIBLE_DEBUG,
+            AnsibleDescribable.ANSIBLE_EXECUTABLE,
+            AnsibleDescribable.ANSIBLE_EXTRA_VARS,
+            AnsibleDescribable.ANSIBLE_EXTRA_PARAM,
+            AnsibleDescribable.ANSIBLE_VAULT_PATH,
+            AnsibleDescribable.ANSIBLE_VAULTSTORE_PATH,
+            AnsibleDescribable.ANSIBLE_SSH_AUTH_TYPE,
+            AnsibleDescribable.ANSIBLE_SSH_USER,
+            AnsibleDescribable.ANSIBLE_SSH_TIMEOUT,
+            AnsibleDescribable.ANSIBLE_SSH_CONTROL_PERSIST,
+            AnsibleDescribable.ANSIBLE_SSH_KEYPATH,
+            AnsibleDescribable.ANSIBLE_SSH_KEYPATH_STORAGE_PATH,
+            AnsibleDescribable.ANSIBLE_SSH_PASSWORD_OPTION,
+            AnsibleDescribable.ANSIBLE_SSH_PASSWORD_STORAGE_PATH,
+            AnsibleDescribable.ANSIBLE_SSH_USE_AGENT,
+            AnsibleDescribable.ANSIBLE_SSH_PASSPHRASE,
+            AnsibleDescribable.ANSIBLE_SSH_PASSPHRASE_OPTION,
+            AnsibleDescribable.ANSIBLE_BECOME,
+            AnsibleDescribable.ANSIBLE_BECOME_USER,
+            AnsibleDescribable.ANSIBLE_BECOME_METHOD,
+            AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_OPTION,
+            AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_STORAGE_PATH,
+            AnsibleDescribable.ANSIBLE_CONFIG_FILE_PATH,
+            AnsibleDescribable.ANSIBLE_BASE_DIR_PATH,
+            AnsibleDescribable.ANSIBLE_BINARIES_DIR_PATH,
+            AnsibleDescribable.ANSIBLE_RETRY_ATTEMPTS,
+            AnsibleDescribable.ANSIBLE_RETRY_BACKOFF,
+            AnsibleDescribable.ANSIBLE_RETRY_ON,
+            AnsibleDescribable.ANSIBLE_WORKER_POOL,
+            AnsibleDescribable.ANSIBLE_WORKER_POOL_SIZE,
+            AnsibleDescribable.ANSIBLE_WORKER_IDLE_TIMEOUT,
+            AnsibleDescribable.ANSIBLE_WORKER_ISOLATION
+    };
+
     private ExecutionContext context;
     private Framework framework;
     private String frameworkProject;
     private Map<String, Object> jobConf;
     private Collection<INodeEntry> nodes;
+    private INodeEntry node;
     private Collection<File> tempFiles;
+    private PropertySnapshot propertySnapshot;
+    private final Collection<AnsibleInventoryCache.Lease> inventoryLeases = new LinkedList<>();
 
     AnsibleRunnerBuilder(final ExecutionContext context, final Framework framework) {
         this.context = context;
@@ -65,6 +114,20 @@ public class AnsibleRunnerBuilder {
         this.frameworkProject = context.getFrameworkProject();
         this.jobConf = configuration;
         this.nodes = Collections.singleton(node);
+        this.node = node;
+        this.tempFiles = new LinkedList<>();
+    }
+
+    /**
+     * Resolves the configuration for the given node, but generates the inventory from all the given nodes.
+     */
+    public AnsibleRunnerBuilder(final INodeEntry node, final Collection<INodeEntry> nodes, final ExecutionContext context, final Framework framework, final Map<String, Object> configuration) {
+        this.context = context;
+        this.framework = framework;
+        this.frameworkProject = context.getFrameworkProject();
+        this.jobConf = configuration;
+        this.nodes = nodes;
+        this.node = node;
         this.tempFiles = new LinkedList<>();
     }
 
@@ -72,18 +135,22 @@ public class AnsibleRunnerBuilder {
         if (null == passwordStoragePath) {
             return null;
         }
-        ResourceMeta contents = context.getStorageTree().getResource(passwordStoragePath).getContents();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        contents.writeContent(byteArrayOutputStream);
-        return byteArrayOutputStream.toByteArray();
+        return readStorage(passwordStoragePath);
+    }
+
+    /**
+     * Reads the Key Storage contents through the cache of the execution, so every node and the
+     * secret bundle share a single read of each storage path.
+     */
+    private byte[] readStorage(final String storagePath) throws IOException {
+        return AnsibleSecretCache.forExecution(context).get(context.getStorageTree(), storagePath);
     }
 
     public String getPrivateKeyfilePath() {
         String path = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_SSH_KEYPATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -99,8 +166,7 @@ public class AnsibleRunnerBuilder {
         String path = PropertyResolver.resolveProperty(
         		AnsibleDescribable.ANSIBLE_SSH_KEYPATH_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -116,11 +182,7 @@ public class AnsibleRunnerBuilder {
         if (null == privateKeyResourcePath) {
             return null;
         }
-        return context
-                .getStorageTree()
-                .getResource(privateKeyResourcePath)
-                .getContents()
-                .getInputStream();
+        return new ByteArrayInputStream(readStorage(privateKeyResourcePath));
     }
 
     public  byte[] getPrivateKeyStorageDataBytes() throws IOException {
@@ -134,8 +196,7 @@ public class AnsibleRunnerBuilder {
         String path = PropertyResolver.resolveProperty(
         		AnsibleDescribable.ANSIBLE_SSH_PASSWORD_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -152,8 +213,7 @@ public class AnsibleRunnerBuilder {
         String storagePath = PropertyResolver.resolveProperty(
         	AnsibleDescribable.ANSIBLE_SSH_KEYPATH_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -166,13 +226,8 @@ public class AnsibleRunnerBuilder {
                         context.getDataContext()
                 );
             }
-            Path path = PathUtil.asPath(storagePath);
             try {
-                ResourceMeta contents = context.getStorageTree().getResource(path)
-                        .getContents();
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                contents.writeContent(byteArrayOutputStream);
-                return new String(byteArrayOutputStream.toByteArray());
+                return new String(readStorage(storagePath));
             } catch (StorageException e) {
                 throw new ConfigurationException("Failed to read the ssh private key for " +
                         "storage path: " + storagePath + ": " + e.getMessage());
@@ -203,8 +258,7 @@ public class AnsibleRunnerBuilder {
         final String passwordOption = PropertyResolver.resolveProperty(
                     AnsibleDescribable.ANSIBLE_SSH_PASSWORD_OPTION,
                     AnsibleDescribable.DEFAULT_ANSIBLE_SSH_PASSWORD_OPTION,
-                    getFrameworkProject(),
-                    getFramework(),
+                    getPropertySnapshot(),
                     getNode(),
                     getjobConf()
                     );
@@ -218,8 +272,7 @@ public class AnsibleRunnerBuilder {
             String storagePath = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_SSH_PASSWORD_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -232,13 +285,8 @@ public class AnsibleRunnerBuilder {
                             context.getDataContext()
                     );
                 }
-                Path path = PathUtil.asPath(storagePath);
                 try {
-                    ResourceMeta contents = context.getStorageTree().getResource(path)
-                            .getContents();
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    contents.writeContent(byteArrayOutputStream);
-                    return new String(byteArrayOutputStream.toByteArray());
+                    return new String(readStorage(storagePath));
                 } catch (StorageException e) {
                     throw new ConfigurationException("Failed to read the ssh password for " +
                             "storage path: " + storagePath + ": " + e.getMessage());
@@ -258,8 +306,7 @@ public class AnsibleRunnerBuilder {
         final String stimeout = PropertyResolver.resolveProperty(
         		    AnsibleDescribable.ANSIBLE_SSH_TIMEOUT,
                     null,
-                    getFrameworkProject(),
-                    getFramework(),
+                    getPropertySnapshot(),
                     getNode(),
                     getjobConf()
                     );
@@ -274,13 +321,22 @@ public class AnsibleRunnerBuilder {
         return timeout;
     }
 
+    public Integer getSshControlPersist() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_SSH_CONTROL_PERSIST,
+                null,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
     public String getSshUser() {
         final String user;
         user = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_SSH_USER,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -296,8 +352,7 @@ public class AnsibleRunnerBuilder {
         String authType = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_SSH_AUTH_TYPE,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -313,8 +368,8 @@ public class AnsibleRunnerBuilder {
         user = PropertyResolver.resolveProperty(
                    AnsibleDescribable.ANSIBLE_BECOME_USER,
                    null,
-                   getFrameworkProject(),
-                   getFramework(),getNode(),
+                   getPropertySnapshot(),
+                   getNode(),
                    getjobConf()
                    );
 
@@ -329,8 +384,7 @@ public class AnsibleRunnerBuilder {
         String sbecome = PropertyResolver.resolveProperty(
                    AnsibleDescribable.ANSIBLE_BECOME,
                    null,
-                   getFrameworkProject(),
-                   getFramework(),
+                   getPropertySnapshot(),
                    getNode(),
                    getjobConf()
                    );
@@ -346,8 +400,7 @@ public class AnsibleRunnerBuilder {
     	extraParams = PropertyResolver.resolveProperty(
     	            AnsibleDescribable.ANSIBLE_EXTRA_PARAM,
     	            null,
-    	            getFrameworkProject(),
-    	            getFramework(),
+    	            getPropertySnapshot(),
     	            getNode(),
     	            getjobConf()
     	            );
@@ -362,8 +415,7 @@ public class AnsibleRunnerBuilder {
         String becomeMethod = PropertyResolver.resolveProperty(
                    AnsibleDescribable.ANSIBLE_BECOME_METHOD,
                    null,
-                   getFrameworkProject(),
-                   getFramework(),
+                   getPropertySnapshot(),
                    getNode(),
                    getjobConf()
                    );
@@ -384,8 +436,7 @@ public class AnsibleRunnerBuilder {
         String path = PropertyResolver.resolveProperty(
         		AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -405,8 +456,7 @@ public class AnsibleRunnerBuilder {
         final String passwordOption = PropertyResolver.resolveProperty(
                     AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_OPTION,
                     AnsibleDescribable.DEFAULT_ANSIBLE_BECOME_PASSWORD_OPTION,
-                    getFrameworkProject(),
-                    getFramework(),
+                    getPropertySnapshot(),
                     getNode(),
                     getjobConf()
                     );
@@ -421,8 +471,7 @@ public class AnsibleRunnerBuilder {
         String passwordOption = PropertyResolver.resolveProperty(
                     AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_OPTION,
                     AnsibleDescribable.DEFAULT_ANSIBLE_BECOME_PASSWORD_OPTION,
-                    getFrameworkProject(),
-                    getFramework(),
+                    getPropertySnapshot(),
                     getNode(),
                     getjobConf()
                     );
@@ -436,8 +485,7 @@ public class AnsibleRunnerBuilder {
             String storagePath = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_STORAGE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -450,13 +498,8 @@ public class AnsibleRunnerBuilder {
                             context.getDataContext()
                     );
                 }
-                Path path = PathUtil.asPath(storagePath);
                 try {
-                    ResourceMeta contents = context.getStorageTree().getResource(path)
-                            .getContents();
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    contents.writeContent(byteArrayOutputStream);
-                    return new String(byteArrayOutputStream.toByteArray());
+                    return new String(readStorage(storagePath));
                 } catch (StorageException e) {
                     throw new ConfigurationException("Failed to read the become password for " +
                             "storage path: " + storagePath + ": " + e.getMessage());
@@ -476,8 +519,7 @@ public class AnsibleRunnerBuilder {
         String storagePath = PropertyResolver.resolveProperty(
         		AnsibleDescribable.ANSIBLE_VAULTSTORE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -490,13 +532,8 @@ public class AnsibleRunnerBuilder {
                         context.getDataContext()
                 );
             }
-            Path path = PathUtil.asPath(storagePath);
             try {
-                ResourceMeta contents = context.getStorageTree().getResource(path)
-                        .getContents();
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                contents.writeContent(byteArrayOutputStream);
-                return new String(byteArrayOutputStream.toByteArray());
+                return new String(readStorage(storagePath));
             } catch (StorageException e) {
                 throw new ConfigurationException("Failed to read the vault key for " +
                         "storage path: " + storagePath + ": " + e.getMessage());
@@ -509,8 +546,7 @@ public class AnsibleRunnerBuilder {
             String path = PropertyResolver.resolveProperty(
             	AnsibleDescribable.ANSIBLE_VAULT_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
                 );
@@ -586,8 +622,7 @@ public class AnsibleRunnerBuilder {
         executable = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_EXECUTABLE,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -603,8 +638,7 @@ public class AnsibleRunnerBuilder {
         String sdebug = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_DEBUG,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -620,8 +654,7 @@ public class AnsibleRunnerBuilder {
         String sgatherFacts = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_GATHER_FACTS,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -637,8 +670,7 @@ public class AnsibleRunnerBuilder {
         String signoreErrors = PropertyResolver.resolveProperty(
                    AnsibleDescribable.ANSIBLE_IGNORE_ERRORS,
                    null,
-                   getFrameworkProject(),
-                   getFramework(),
+                   getPropertySnapshot(),
                    getNode(),
                    getjobConf()
                    );
@@ -654,8 +686,7 @@ public class AnsibleRunnerBuilder {
         ignoreTagsPrefix = PropertyResolver.resolveProperty(
                    AnsibleDescribable.ANSIBLE_IGNORE_TAGS,
                    null,
-                   getFrameworkProject(),
-                   getFramework(),
+                   getPropertySnapshot(),
                    getNode(),
                    getjobConf()
                    );
@@ -671,8 +702,7 @@ public class AnsibleRunnerBuilder {
         extraVars = PropertyResolver.resolveProperty(
                     AnsibleDescribable.ANSIBLE_EXTRA_VARS,
                     null,
-                    getFrameworkProject(),
-                    getFramework(),
+                    getPropertySnapshot(),
                     getNode(),
                     getjobConf()
                     );
@@ -688,8 +718,7 @@ public class AnsibleRunnerBuilder {
         String sgenerateInventory = PropertyResolver.resolveProperty(
                   AnsibleDescribable.ANSIBLE_GENERATE_INVENTORY,
                   null,
-                  getFrameworkProject(),
-                  getFramework(),
+                  getPropertySnapshot(),
                   getNode(),
                   getjobConf()
                   );
@@ -707,7 +736,24 @@ public class AnsibleRunnerBuilder {
 
 
         if (isGenerated !=null && isGenerated) {
-            File tempInventory = new AnsibleInventoryBuilder(this.nodes).buildInventory();
+            Set<String> hostVarsNodes = getHostVarsNodes();
+            Integer cacheSize = getInventoryCacheSize();
+            if (cacheSize != null && cacheSize > 0) {
+                // runs over the same nodes share the generated file
+                AnsibleInventoryCache cache = null;
+                try {
+                    cache = AnsibleInventoryCache.getInstance(getInventoryCacheDir(),
+                            AnsiblePrivateDirectory.getBase(getFramework()), cacheSize);
+                } catch (IOException e) {
+                    System.out.println("[warn] Not using the inventory cache: " + e.getMessage());
+                }
+                if (cache != null) {
+                    AnsibleInventoryCache.Lease lease = cache.acquire(this.nodes, hostVarsNodes);
+                    inventoryLeases.add(lease);
+                    return lease.getFile().toAbsolutePath().toString();
+                }
+            }
+            File tempInventory = new AnsibleInventoryBuilder(this.nodes, hostVarsNodes).buildInventory();
             tempFiles.add(tempInventory);
             inventory = tempInventory.getAbsolutePath();
             return inventory;
@@ -715,8 +761,7 @@ public class AnsibleRunnerBuilder {
         inline_inventory = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_INVENTORY_INLINE,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -736,8 +781,7 @@ public class AnsibleRunnerBuilder {
         inventory = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_INVENTORY,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -749,6 +793,39 @@ public class AnsibleRunnerBuilder {
         return inventory;
     }
 
+    /**
+     * @return the nodes whose attributes go in the generated inventory, or null for all of them. The
+     * attributes are limited only if the limit is a plain list of node names, since ansible patterns
+     * and group names can't be resolved here.
+     */
+    public Set<String> getHostVarsNodes() throws ConfigurationException {
+        if (!PropertyResolver.resolveBooleanProperty(
+                AnsibleDescribable.ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,
+                Boolean.FALSE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf())) {
+            return null;
+        }
+        String limit = getLimit();
+        if (limit == null || limit.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> nodeNames = new HashSet<>();
+        for (INodeEntry entry : nodes) {
+            nodeNames.add(entry.getNodename());
+        }
+        Set<String> limited = new HashSet<>();
+        for (String name : limit.split("[,:]")) {
+            name = name.trim();
+            if (!nodeNames.contains(name)) {
+                return null;
+            }
+            limited.add(name);
+        }
+        return limited;
+    }
+
     public String getLimit() throws ConfigurationException {
         final String limit;
 
@@ -756,8 +833,7 @@ public class AnsibleRunnerBuilder {
         if(PropertyResolver.resolveBooleanProperty(
         				AnsibleDescribable.ANSIBLE_DISABLE_LIMIT,
         				Boolean.valueOf(AnsibleDescribable.DISABLE_LIMIT_PROP.getDefaultValue()),
-    				    getFrameworkProject(),
-                        getFramework(),
+    				    getPropertySnapshot(),
                         getNode(),
                         getjobConf())){
 
@@ -768,8 +844,7 @@ public class AnsibleRunnerBuilder {
         limit = PropertyResolver.resolveProperty(
                      AnsibleDescribable.ANSIBLE_LIMIT,
                      null,
-                     getFrameworkProject(),
-                     getFramework(),
+                     getPropertySnapshot(),
                      getNode(),
                      getjobConf()
                      );
@@ -786,8 +861,7 @@ public class AnsibleRunnerBuilder {
         configFile = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_CONFIG_FILE_PATH,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -822,6 +896,30 @@ public class AnsibleRunnerBuilder {
         return binariesFilePathStr;
     }
 
+    /**
+     * Describes every resolved setting that ends up in the ansible invocation, except the limit.
+     * Two builders with the same key produce equivalent runners. Secrets are referenced by their
+     * option name or storage path, never by their value.
+     */
+    public String getRunnerSettingsKey() {
+        StringBuilder key = new StringBuilder();
+        for (String attribute : RUNNER_SETTINGS) {
+            String value = PropertyResolver.resolveProperty(
+                    attribute,
+                    null,
+                    getPropertySnapshot(),
+                    getNode(),
+                    getjobConf()
+                    );
+
+            if (null != value && value.contains("${")) {
+                value = DataContextUtils.replaceDataReferences(value, getContext().getDataContext());
+            }
+            key.append(attribute).append('=').append(value).append('\n');
+        }
+        return key.toString();
+    }
+
     public AnsibleRunner buildAnsibleRunner() throws ConfigurationException{
 
         AnsibleRunner runner = null;
@@ -848,6 +946,7 @@ public class AnsibleRunnerBuilder {
 
              if(getUseSshAgent()){
                  runner.sshUseAgent(true);
+                 runner.sshAgentScope(AnsibleUtil.getExecutionScope(context));
 
                  String passphraseOption = getPassphrase();
                  runner.sshPassphrase(passphraseOption);
@@ -912,6 +1011,17 @@ public class AnsibleRunnerBuilder {
             runner = runner.sshTimeout(timeout);
         }
 
+        Integer controlPersist = getSshControlPersist();
+        if (controlPersist != null && controlPersist > 0) {
+            try {
+                runner = runner.sshControlPersist(controlPersist,
+                        AnsibleSshControlPath.getDirectory(AnsiblePrivateDirectory.getBase(getFramework()),
+                                getFrameworkProject(), controlPersist));
+            } catch (IOException e) {
+                System.out.println("[warn] Could not create the ssh control path directory, connections are not kept: " + e.getMessage());
+            }
+        }
+
         Boolean become = getBecome();
         if (become != null) {
             runner = runner.become(become);
@@ -952,6 +1062,20 @@ public class AnsibleRunnerBuilder {
             runner = runner.ansibleBinariesDirectory(binariesFilePath);
         }
 
+        Integer retryAttempts = getRetryAttempts();
+        if (retryAttempts != null && retryAttempts > 1) {
+            runner = runner.retryAttempts(retryAttempts)
+                    .retryBackoff(getRetryBackoff())
+                    .retryOn(getRetryOn());
+        }
+
+        if (getUseWorkerPool()) {
+            runner = runner.workerPool(Boolean.TRUE)
+                    .workerPoolSize(getWorkerPoolSize())
+                    .workerIdleTimeout(getWorkerIdleTimeout())
+                    .workerIsolation(getWorkerIsolation());
+        }
+
         return runner;
     }
 
@@ -963,7 +1087,20 @@ public class AnsibleRunnerBuilder {
         return framework;
     }
 
+    /**
+     * @return the project and framework properties of the execution, resolved once and shared by its builders
+     */
+    public PropertySnapshot getPropertySnapshot() {
+        if (propertySnapshot == null) {
+            propertySnapshot = PropertySnapshot.forExecution(context, framework, frameworkProject);
+        }
+        return propertySnapshot;
+    }
+
     public INodeEntry getNode() {
+        if (node != null) {
+            return node;
+        }
         return nodes.size() == 1 ? nodes.iterator().next() : null;
     }
 
@@ -982,6 +1119,110 @@ public class AnsibleRunnerBuilder {
             }
         }
         tempFiles.clear();
+        for (AnsibleInventoryCache.Lease lease : inventoryLeases) {
+            lease.release();
+        }
+        inventoryLeases.clear();
+    }
+
+    public Integer getInventoryCacheSize() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_INVENTORY_CACHE_SIZE,
+                AnsibleDescribable.DEFAULT_ANSIBLE_INVENTORY_CACHE_SIZE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public String getInventoryCacheDir() {
+        return PropertyResolver.resolveProperty(
+                AnsibleDescribable.ANSIBLE_INVENTORY_CACHE_DIR,
+                null,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Boolean getNodeResults() throws ConfigurationException {
+        return PropertyResolver.resolveBooleanProperty(
+                AnsibleDescribable.ANSIBLE_NODE_RESULTS,
+                Boolean.FALSE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Integer getRetryAttempts() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_RETRY_ATTEMPTS,
+                1,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Integer getRetryBackoff() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_RETRY_BACKOFF,
+                AnsibleDescribable.DEFAULT_ANSIBLE_RETRY_BACKOFF,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public String getRetryOn() {
+        return PropertyResolver.resolveProperty(
+                AnsibleDescribable.ANSIBLE_RETRY_ON,
+                AnsibleRunner.RETRY_UNREACHABLE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Boolean getUseWorkerPool() throws ConfigurationException {
+        return PropertyResolver.resolveBooleanProperty(
+                AnsibleDescribable.ANSIBLE_WORKER_POOL,
+                Boolean.FALSE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Integer getWorkerPoolSize() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_WORKER_POOL_SIZE,
+                AnsibleDescribable.DEFAULT_ANSIBLE_WORKER_POOL_SIZE,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public Integer getWorkerIdleTimeout() throws ConfigurationException {
+        return PropertyResolver.resolveIntProperty(
+                AnsibleDescribable.ANSIBLE_WORKER_IDLE_TIMEOUT,
+                AnsibleDescribable.DEFAULT_ANSIBLE_WORKER_IDLE_TIMEOUT,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
+    }
+
+    public String getWorkerIsolation() {
+        return PropertyResolver.resolveProperty(
+                AnsibleDescribable.ANSIBLE_WORKER_ISOLATION,
+                AnsibleWorkerPool.ISOLATION_FORK,
+                getPropertySnapshot(),
+                getNode(),
+                getjobConf()
+        );
     }
 
     public Boolean getUseSshAgent() {
@@ -989,8 +1230,7 @@ public class AnsibleRunnerBuilder {
         String sAgent = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_SSH_USE_AGENT,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -1007,8 +1247,7 @@ public class AnsibleRunnerBuilder {
         final String passphraseOption = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_SSH_PASSPHRASE_OPTION,
                 AnsibleDescribable.DEFAULT_ANSIBLE_SSH_PASSPHRASE_OPTION,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -1032,8 +1271,7 @@ public class AnsibleRunnerBuilder {
         String storagePath = PropertyResolver.resolveProperty(
                 AnsibleDescribable.ANSIBLE_SSH_PASSPHRASE,
                 null,
-                getFrameworkProject(),
-                getFramework(),
+                getPropertySnapshot(),
                 getNode(),
                 getjobConf()
         );
@@ -1044,13 +1282,8 @@ public class AnsibleRunnerBuilder {
                 storagePath = DataContextUtils.replaceDataReferences(storagePath, context.getDataContext());
             }
 
-            Path path = PathUtil.asPath(storagePath);
             try {
-                ResourceMeta contents = context.getStorageTree().getResource(path)
-                        .getContents();
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                contents.writeContent(byteArrayOutputStream);
-                return new String(byteArrayOutputStream.toByteArray());
+                return new String(readStorage(storagePath));
             } catch (StorageException e) {
                 throw new ConfigurationException("Failed to read the ssh Passphrase for " +
                         "storage path: " + storagePath + ": " + e.getMessage());
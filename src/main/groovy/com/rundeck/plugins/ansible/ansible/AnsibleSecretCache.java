@@ -0,0 +1,130 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.execution.ExecutionContext;
+import com.dtolabs.rundeck.core.storage.ResourceMeta;
+import com.dtolabs.rundeck.core.storage.StorageTree;
+import com.rundeck.plugins.ansible.util.AnsibleUtil;
+import org.rundeck.storage.api.PathUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key Storage contents read by an execution, or by a resource model source, so each storage path is
+ * read once however many nodes use it. A secret is read again once loaded for longer than the TTL
+ * of its scope, and a scope is dropped once unused for its TTL, e.g. when its execution is over.
+ * Dropped secrets are overwritten in memory.
+ */
+public class AnsibleSecretCache {
+
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final Map<String, AnsibleSecretCache> SCOPES = new HashMap<>();
+  private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "ansible-secret-cache");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    SWEEPER.scheduleWithFixedDelay(AnsibleSecretCache::evictExpired, 30, 30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return the cache of the execution, or a cache private to the caller if the context does not
+   * tell the execution id
+   */
+  public static AnsibleSecretCache forExecution(ExecutionContext context) {
+    String scope = AnsibleUtil.getExecutionScope(context);
+    if (scope == null) {
+      return new AnsibleSecretCache(DEFAULT_TTL_MILLIS);
+    }
+    return forScope(scope, DEFAULT_TTL_MILLIS);
+  }
+
+  public static AnsibleSecretCache forScope(String scope, long ttlMillis) {
+    synchronized (SCOPES) {
+      AnsibleSecretCache cache = SCOPES.get(scope);
+      if (cache == null) {
+        cache = new AnsibleSecretCache(ttlMillis);
+        SCOPES.put(scope, cache);
+      }
+      cache.lastUsed = System.currentTimeMillis();
+      return cache;
+    }
+  }
+
+  private static void evictExpired() {
+    long now = System.currentTimeMillis();
+    synchronized (SCOPES) {
+      Iterator<AnsibleSecretCache> iterator = SCOPES.values().iterator();
+      while (iterator.hasNext()) {
+        AnsibleSecretCache cache = iterator.next();
+        if (now - cache.lastUsed >= cache.ttlMillis) {
+          iterator.remove();
+          cache.clear();
+        }
+      }
+    }
+  }
+
+  private static class Secret {
+    final byte[] value;
+    final long loadedAt = System.currentTimeMillis();
+
+    Secret(byte[] value) {
+      this.value = value;
+    }
+  }
+
+  private final long ttlMillis;
+  private final Map<String, Secret> secrets = new HashMap<>();
+  private volatile long lastUsed = System.currentTimeMillis();
+
+  private AnsibleSecretCache(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * @return a copy of the contents of the storage path, read from the storage tree on first use
+   * and again once read for longer than the TTL, however often it is used
+   */
+  public byte[] get(StorageTree storageTree, String storagePath) throws IOException {
+    long now = System.currentTimeMillis();
+    lastUsed = now;
+    synchronized (secrets) {
+      Secret secret = secrets.get(storagePath);
+      if (secret != null && now - secret.loadedAt >= ttlMillis) {
+        Arrays.fill(secret.value, (byte) 0);
+        secret = null;
+      }
+      if (secret == null) {
+        ResourceMeta contents = storageTree.getResource(PathUtil.asPath(storagePath)).getContents();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        contents.writeContent(byteArrayOutputStream);
+        secret = new Secret(byteArrayOutputStream.toByteArray());
+        secrets.put(storagePath, secret);
+      }
+      return secret.value.clone();
+    }
+  }
+
+  /**
+   * Overwrites and forgets the cached secrets.
+   */
+  public void clear() {
+    synchronized (secrets) {
+      for (Secret secret : secrets.values()) {
+        Arrays.fill(secret.value, (byte) 0);
+      }
+      secrets.clear();
+    }
+  }
+}
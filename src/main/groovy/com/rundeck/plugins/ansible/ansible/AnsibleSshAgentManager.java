@@ -0,0 +1,225 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.utils.SSHAgentProcess;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared ssh-agents, one per execution and private key, so the runs of an execution start the agent
+ * and add the key once instead of once per node. Agents in use are reference counted, an agent is
+ * stopped once unused for its idle TTL, or right away if it does not belong to an execution.
+ */
+public class AnsibleSshAgentManager {
+
+  public static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final AnsibleSshAgentManager INSTANCE = new AnsibleSshAgentManager();
+  private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "ansible-ssh-agents");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    SWEEPER.scheduleWithFixedDelay(INSTANCE::stopIdle, 15, 15, TimeUnit.SECONDS);
+  }
+
+  public static AnsibleSshAgentManager getInstance() {
+    return INSTANCE;
+  }
+
+  private static class Agent {
+    final SSHAgentProcess process;
+    final boolean shared;
+    int references;
+    long lastReleased;
+    boolean loaded;
+
+    Agent(SSHAgentProcess process, boolean shared) {
+      this.process = process;
+      this.shared = shared;
+    }
+  }
+
+  /**
+   * An agent in use, release it once the run is over.
+   */
+  public class Lease {
+    private final String key;
+    private final Agent agent;
+    private boolean released;
+
+    private Lease(String key, Agent agent) {
+      this.key = key;
+      this.agent = agent;
+    }
+
+    public String getSocketPath() {
+      return agent.process.getSocketPath();
+    }
+
+    public void release() {
+      synchronized (AnsibleSshAgentManager.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+        agent.references--;
+        agent.lastReleased = System.currentTimeMillis();
+        if (agent.references == 0 && (!agent.shared || !agent.loaded)) {
+          agents.remove(key, agent);
+          agent.process.stopAgent();
+        }
+      }
+    }
+  }
+
+  private final Map<String, Agent> agents = new HashMap<>();
+
+  private AnsibleSshAgentManager() {
+  }
+
+  /**
+   * Returns an agent holding the private key, starting it and adding the key if no run of the
+   * execution did yet.
+   *
+   * @param scope       the execution the agent is shared in, e.g. project:execid, not shared if null
+   * @param privateKey  the private key
+   * @param passphrase  the passphrase of the key, may be null
+   * @param timeToLive  the lifetime of the key in the agent, in seconds, 0 for no limit
+   */
+  public Lease acquire(String scope, String privateKey, String passphrase, Integer timeToLive, boolean debug)
+          throws AnsibleException {
+    boolean shared = scope != null && scope.length() > 0;
+    String key = shared ? scope + ":" + hash(privateKey, passphrase) : null;
+    Agent agent;
+    synchronized (this) {
+      agent = shared ? agents.get(key) : null;
+      if (agent == null) {
+        agent = new Agent(startAgent(timeToLive), shared);
+        if (shared) {
+          agents.put(key, agent);
+        }
+      }
+      agent.references++;
+    }
+    Lease lease = new Lease(key, agent);
+
+    // only the first run adds the key, the others wait for it
+    try {
+      synchronized (agent) {
+        if (!agent.loaded) {
+          addKey(agent.process, privateKey, passphrase, debug);
+          agent.loaded = true;
+        }
+      }
+    } catch (AnsibleException e) {
+      lease.release();
+      throw e;
+    }
+    return lease;
+  }
+
+  private synchronized void stopIdle() {
+    long now = System.currentTimeMillis();
+    Iterator<Agent> iterator = agents.values().iterator();
+    while (iterator.hasNext()) {
+      Agent agent = iterator.next();
+      if (agent.references == 0 && now - agent.lastReleased >= DEFAULT_IDLE_MILLIS) {
+        iterator.remove();
+        agent.process.stopAgent();
+      }
+    }
+  }
+
+  private static SSHAgentProcess startAgent(Integer timeToLive) throws AnsibleException {
+    try {
+      return new SSHAgentProcess(timeToLive);
+    } catch (Exception e) {
+      throw new AnsibleException("ERROR: could not start ssh-agent: " + e.getMessage(), e, AnsibleException.AnsibleFailureReason.Unknown);
+    }
+  }
+
+  private static void addKey(SSHAgentProcess agent, String privateKey, String passphrase, boolean debug)
+          throws AnsibleException {
+    List<String> procArgs = new ArrayList<>();
+    procArgs.add("/usr/bin/ssh-add");
+
+    Process proc = null;
+    try (AnsibleStagingDirectory staging = AnsibleStagingDirectory.create()) {
+      Path keyFile = staging.write("id_rsa", privateKey.getBytes());
+      procArgs.add(keyFile.toAbsolutePath().toString());
+
+      if (debug) {
+        System.out.println(" registerKeySshAgent: " + procArgs.toString());
+      }
+
+      // execute the ssh-agent add process
+      ProcessBuilder processBuilder = new ProcessBuilder()
+              .command(procArgs)
+              .directory(staging.getDirectory().toFile());
+      processBuilder.environment().put("SSH_AUTH_SOCK", agent.getSocketPath());
+      proc = processBuilder.start();
+
+      OutputStreamWriter stdinw = new OutputStreamWriter(proc.getOutputStream());
+      try {
+        if (passphrase != null && passphrase.length() > 0) {
+          stdinw.write(passphrase + "\n");
+          stdinw.flush();
+        }
+      } catch (Exception e) {
+        if (debug) {
+          System.out.println("not prompt enable");
+        }
+      }
+
+      int exitCode = proc.waitFor();
+      if (exitCode != 0) {
+        throw new AnsibleException("ERROR: ssh-add returns with non zero code:" + procArgs.toString(),
+                AnsibleException.AnsibleFailureReason.AnsibleNonZero);
+      }
+    } catch (IOException e) {
+      throw new AnsibleException("ERROR: error adding private key to ssh-agent." + procArgs.toString(), e, AnsibleException.AnsibleFailureReason.Unknown);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AnsibleException("ERROR: error adding private key to ssh-agen Interrupted.", e, AnsibleException.AnsibleFailureReason.Interrupted);
+    } finally {
+      // Make sure to always cleanup on failure and success
+      if (proc != null) {
+        proc.destroy();
+      }
+    }
+  }
+
+  private static String hash(String privateKey, String passphrase) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(privateKey.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    if (passphrase != null) {
+      digest.update(passphrase.getBytes(StandardCharsets.UTF_8));
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
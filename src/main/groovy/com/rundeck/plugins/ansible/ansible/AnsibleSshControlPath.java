@@ -0,0 +1,102 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directories of the ssh ControlPersist sockets, one per project, kept across runs so the runs of
+ * a project reuse the master connection opened to a host by a previous run instead of connecting
+ * and authenticating again. ssh removes the socket of a master when it exits, sockets left by a
+ * killed master are removed once older than the persist time plus an hour and no master answers
+ * on them anymore. The directories must be private to the user running Rundeck, see
+ * {@link AnsiblePrivateDirectory}, ssh would otherwise use masters opened by another user.
+ */
+public class AnsibleSshControlPath {
+
+  private static final long STALE_MARGIN_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long CHECK_TIMEOUT_SECONDS = 5;
+  private static final Map<Path, Long> LAST_CLEANUP = new HashMap<>();
+
+  /**
+   * @param base the base directory, see {@link AnsiblePrivateDirectory#getBase}
+   * @return the control path directory of the project, readable by its owner only
+   * @throws IOException if the directory is not private to the user running Rundeck
+   */
+  public static Path getDirectory(Path base, String project, int persistSeconds) throws IOException {
+    // sockets paths are limited to about 100 characters, keep the directory name short
+    Path directory = AnsiblePrivateDirectory.create(base, "ansible-cp", hash(project));
+    removeStale(directory, TimeUnit.SECONDS.toMillis(persistSeconds) + STALE_MARGIN_MILLIS);
+    return directory;
+  }
+
+  private static void removeStale(Path directory, long maxAgeMillis) {
+    long now = System.currentTimeMillis();
+    synchronized (LAST_CLEANUP) {
+      Long last = LAST_CLEANUP.get(directory);
+      if (last != null && now - last < STALE_MARGIN_MILLIS) {
+        return;
+      }
+      LAST_CLEANUP.put(directory, now);
+    }
+    try (DirectoryStream<Path> sockets = Files.newDirectoryStream(directory)) {
+      for (Path socket : sockets) {
+        // a master in use keeps the mtime of its socket from its start
+        if (now - socket.toFile().lastModified() > maxAgeMillis && !isMasterAlive(socket)) {
+          Files.deleteIfExists(socket);
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("[warn] Could not remove stale ssh control sockets in " + directory + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Asks the master listening on the socket whether it is running. A socket is only reported dead
+   * when ssh says so, if ssh cannot be run or does not answer in time the socket is kept.
+   */
+  private static boolean isMasterAlive(Path socket) {
+    Process proc = null;
+    try {
+      // the destination is required but not used, the control path tells the master
+      proc = new ProcessBuilder("ssh", "-O", "check", "-o", "ControlPath=" + socket.toAbsolutePath(), "control-check")
+              .redirectErrorStream(true)
+              .start();
+      if (!proc.waitFor(CHECK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        return true;
+      }
+      return proc.exitValue() == 0;
+    } catch (IOException e) {
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    } finally {
+      if (proc != null) {
+        proc.destroy();
+      }
+    }
+  }
+
+  private static String hash(String project) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] bytes = digest.digest(String.valueOf(project).getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < 8; i++) {
+      hex.append(String.format("%02x", bytes[i]));
+    }
+    return hex.toString();
+  }
+}
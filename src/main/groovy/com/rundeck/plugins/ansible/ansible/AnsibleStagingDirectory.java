@@ -0,0 +1,102 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Private directory holding the files of a single run: inline playbook, targets, extra vars,
+ * vault password and private key. It lives on the shared memory tmpfs when the system has one,
+ * so small inputs and secrets are not written to persistent disk, and is removed as a whole
+ * when the run ends instead of registering every file for deletion on exit.
+ */
+public class AnsibleStagingDirectory implements AutoCloseable {
+
+  private static final Path SHARED_MEMORY = Paths.get("/dev/shm");
+  private static final String PREFIX = "ansible-runner";
+
+  private final Path directory;
+
+  private AnsibleStagingDirectory(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Creates the directory of a run, readable by its owner only.
+   */
+  public static AnsibleStagingDirectory create() throws IOException {
+    Path parent = getParent();
+    Path directory;
+    if (isPosix(parent)) {
+      directory = Files.createTempDirectory(parent, PREFIX,
+              PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    } else {
+      directory = Files.createTempDirectory(parent, PREFIX);
+    }
+    return new AnsibleStagingDirectory(directory);
+  }
+
+  /**
+   * Writes a file readable by its owner only.
+   * @return the path of the file
+   */
+  public Path write(String name, byte[] content) throws IOException {
+    Path file = directory.resolve(name);
+    if (isPosix(directory)) {
+      Set<PosixFilePermission> perms = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+      Files.createFile(file, PosixFilePermissions.asFileAttribute(perms));
+    } else {
+      Files.createFile(file);
+    }
+    Files.write(file, content, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    return file;
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Removes the directory and everything written in it.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static Path getParent() {
+    if (Files.isDirectory(SHARED_MEMORY) && Files.isWritable(SHARED_MEMORY)) {
+      return SHARED_MEMORY;
+    }
+    return Paths.get(System.getProperty("java.io.tmpdir"));
+  }
+
+  private static boolean isPosix(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+}
@@ -0,0 +1,384 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.rundeck.plugins.ansible.util.LineBatcher;
+import com.rundeck.plugins.ansible.util.Listener;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of long-lived python processes running the bundled ansible-worker.py driver, so ansible
+ * runs do not pay the interpreter and ansible import startup on every invocation.
+ * <p>
+ * Ansible reads its configuration when it is imported, so a worker can only serve runs with the
+ * same binaries directory, the same ANSIBLE_* environment and, when it holds an ansible.cfg, the
+ * same working directory. There is one pool per such combination, removed once it has no
+ * worker left and no run in progress.
+ */
+public class AnsibleWorkerPool {
+
+  public static final String ISOLATION_FORK = "fork";
+  public static final String ISOLATION_PROCESS = "process";
+
+  private static final String WORKER_SCRIPT = "ansible-worker.py";
+  private static final long POLL_INTERVAL_MILLIS = 10;
+
+  private static final Map<String, AnsibleWorkerPool> POOLS = new HashMap<>();
+  private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "ansible-worker-pool-evictor");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static Path workerScript;
+
+  /**
+   * Gets the pool able to run ansible with the given binaries directory, environment and
+   * working directory, creating it if needed. Size, idle timeout and isolation are taken
+   * from the first caller of a pool.
+   */
+  public static AnsibleWorkerPool getPool(Path binariesDirectory, Map<String, String> environment, Path directory,
+                                          int size, int idleTimeout, String isolation) {
+    Path configDirectory = Files.exists(directory.resolve("ansible.cfg")) ? directory : null;
+
+    StringBuilder key = new StringBuilder();
+    key.append(binariesDirectory).append('\n').append(configDirectory).append('\n').append(isolation).append('\n');
+    for (Map.Entry<String, String> entry : new TreeMap<>(environment).entrySet()) {
+      if (entry.getKey().startsWith("ANSIBLE_")) {
+        key.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+      }
+    }
+
+    synchronized (POOLS) {
+      AnsibleWorkerPool pool = POOLS.get(key.toString());
+      if (pool == null) {
+        pool = new AnsibleWorkerPool(key.toString(), binariesDirectory, environment, configDirectory, size,
+                idleTimeout, isolation);
+        POOLS.put(key.toString(), pool);
+      }
+      return pool;
+    }
+  }
+
+  private static class Worker {
+    final Process process;
+    final BufferedReader output;
+    final OutputStream jobs;
+    // what the worker printed while starting, e.g. warnings, given to its first run
+    final List<String> startOutput = new ArrayList<>();
+    long lastUsed;
+
+    Worker(Process process) {
+      this.process = process;
+      this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+      this.jobs = process.getOutputStream();
+    }
+  }
+
+  private final String key;
+  private final Path binariesDirectory;
+  private final Map<String, String> environment;
+  private final Path directory;
+  private final long idleTimeoutMillis;
+  private final String isolation;
+  private final int size;
+  private final Semaphore permits;
+  private final Deque<Worker> idle = new ArrayDeque<>();
+  private final ScheduledFuture<?> eviction;
+  private boolean closed;
+
+  private AnsibleWorkerPool(String key, Path binariesDirectory, Map<String, String> environment, Path configDirectory,
+                            int size, int idleTimeout, String isolation) {
+    this.key = key;
+    this.binariesDirectory = binariesDirectory;
+    this.environment = new HashMap<>(environment);
+    this.directory = configDirectory != null ? configDirectory : Paths.get(System.getProperty("java.io.tmpdir"));
+    this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeout);
+    this.isolation = ISOLATION_PROCESS.equals(isolation) ? ISOLATION_PROCESS : ISOLATION_FORK;
+    this.size = Math.max(1, size);
+    this.permits = new Semaphore(this.size, true);
+
+    long period = Math.max(1, idleTimeout / 2);
+    this.eviction = EVICTOR.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Runs an ansible command line on a warm worker, blocking while all workers of the pool are busy.
+   *
+   * @param args        the command line, starting with the ansible, ansible-playbook or ansible-inventory command
+   * @param directory   the working directory of the run
+   * @param environment the full environment of the run
+   * @param input       what is written to the standard input of the run, e.g. connection passwords
+   * @param listener    receives the output lines of the run
+   * @return the exit code of the run
+   */
+  public int run(List<String> args, Path directory, Map<String, String> environment, String input,
+                 Listener listener) throws IOException, InterruptedException {
+    JsonObject job = new JsonObject();
+    JsonArray jobArgs = new JsonArray();
+    for (String arg : args) {
+      jobArgs.add(arg);
+    }
+    job.add("args", jobArgs);
+    job.addProperty("cwd", directory.toFile().getAbsolutePath());
+    JsonObject jobEnvironment = new JsonObject();
+    for (Map.Entry<String, String> entry : environment.entrySet()) {
+      jobEnvironment.addProperty(entry.getKey(), entry.getValue());
+    }
+    job.add("env", jobEnvironment);
+    job.addProperty("input", input);
+
+    permits.acquire();
+    Worker worker = null;
+    boolean reusable = false;
+    try {
+      worker = takeWorker();
+      for (String line : worker.startOutput) {
+        listener.output(line);
+      }
+      worker.startOutput.clear();
+      worker.jobs.write((job.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+      worker.jobs.flush();
+
+      int result;
+      if (ISOLATION_PROCESS.equals(isolation)) {
+        result = readProcessOutput(worker, listener);
+      } else {
+        result = readForkOutput(worker, listener);
+        reusable = true;
+      }
+      return result;
+    } finally {
+      if (worker != null) {
+        if (reusable) {
+          worker.lastUsed = System.currentTimeMillis();
+          release(worker);
+        } else {
+          // the worker kills the process group of the ansible run it forked, e.g. its ssh connections
+          worker.process.destroy();
+          if (ISOLATION_PROCESS.equals(isolation)) {
+            prestartWorker();
+          }
+        }
+      }
+      permits.release();
+    }
+  }
+
+  /**
+   * With the process isolation a worker serves a single run, start its replacement in the
+   * background so the next run still finds a warm worker.
+   */
+  private void prestartWorker() {
+    Thread thread = new Thread(() -> {
+      try {
+        Worker worker = startWorker();
+        worker.lastUsed = System.currentTimeMillis();
+        release(worker);
+      } catch (IOException e) {
+        System.out.println("[warn] Failed to start ansible worker: " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "ansible-worker-prestart");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Makes the worker available to the next run, or stops it if the pool has enough idle workers
+   * or was removed.
+   */
+  private void release(Worker worker) {
+    synchronized (idle) {
+      if (!closed && idle.size() < size) {
+        idle.push(worker);
+        return;
+      }
+    }
+    worker.process.destroy();
+  }
+
+  private int readForkOutput(Worker worker, Listener listener) throws IOException, InterruptedException {
+    while (true) {
+      String line = readLine(worker, listener);
+      if (line == null) {
+        throw new IOException("ansible worker exited unexpectedly");
+      }
+      if (line.startsWith("O ")) {
+        listener.output(line.substring(2));
+      } else if (line.startsWith("X ")) {
+        return Integer.parseInt(line.substring(2).trim());
+      } else {
+        // unframed, printed by the worker itself
+        listener.output(line);
+      }
+    }
+  }
+
+  private int readProcessOutput(Worker worker, Listener listener) throws IOException, InterruptedException {
+    String line;
+    while ((line = readLine(worker, listener)) != null) {
+      listener.output(line);
+    }
+    return worker.process.waitFor();
+  }
+
+  /**
+   * Reads the next line of the worker without blocking uninterruptibly, so an interrupted
+   * run stops waiting on the worker. Lines batched by the listener are flushed while waiting.
+   */
+  private String readLine(Worker worker, Listener listener) throws IOException, InterruptedException {
+    while (!worker.output.ready()) {
+      if (!worker.process.isAlive()) {
+        return worker.output.readLine();
+      }
+      if (listener instanceof LineBatcher) {
+        ((LineBatcher) listener).flushIfDue();
+      }
+      Thread.sleep(POLL_INTERVAL_MILLIS);
+    }
+    return worker.output.readLine();
+  }
+
+  private Worker takeWorker() throws IOException, InterruptedException {
+    synchronized (idle) {
+      while (!idle.isEmpty()) {
+        Worker worker = idle.pop();
+        if (worker.process.isAlive()) {
+          return worker;
+        }
+      }
+    }
+    return startWorker();
+  }
+
+  private Worker startWorker() throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>(getPythonCommand());
+    command.add(getWorkerScript().toString());
+    command.add(isolation);
+
+    ProcessBuilder processBuilder = new ProcessBuilder()
+            .command(command)
+            .directory(directory.toFile())
+            .redirectErrorStream(true);
+    processBuilder.environment().clear();
+    processBuilder.environment().putAll(environment);
+
+    Worker worker = new Worker(processBuilder.start());
+    String line;
+    while (!"R".equals(line = readLine(worker, null))) {
+      if (line == null) {
+        worker.process.destroy();
+        throw new IOException("ansible worker failed to start: " + command + ": " + String.join("\n", worker.startOutput));
+      }
+      worker.startOutput.add(line);
+    }
+    return worker;
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    synchronized (POOLS) {
+      synchronized (idle) {
+        idle.removeIf(worker -> {
+          if (now - worker.lastUsed >= idleTimeoutMillis || !worker.process.isAlive()) {
+            worker.process.destroy();
+            return true;
+          }
+          return false;
+        });
+
+        // a run holding the pool after its removal stops its worker once done
+        if (idle.isEmpty() && permits.availablePermits() == size) {
+          closed = true;
+          POOLS.remove(key, this);
+          eviction.cancel(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Uses the interpreter of the ansible entry point, so the worker imports the same ansible.
+   */
+  private List<String> getPythonCommand() {
+    List<String> command = new ArrayList<>();
+    File ansible = null;
+    if (binariesDirectory != null) {
+      ansible = binariesDirectory.resolve("ansible").toFile();
+    } else {
+      String path = environment.get("PATH");
+      if (path != null) {
+        for (String dir : path.split(File.pathSeparator)) {
+          File candidate = new File(dir, "ansible");
+          if (candidate.canExecute()) {
+            ansible = candidate;
+            break;
+          }
+        }
+      }
+    }
+
+    if (ansible != null && ansible.isFile()) {
+      try (BufferedReader reader = Files.newBufferedReader(ansible.toPath(), StandardCharsets.UTF_8)) {
+        String shebang = reader.readLine();
+        if (shebang != null && shebang.startsWith("#!")) {
+          for (String token : shebang.substring(2).trim().split("\\s+")) {
+            if (command.isEmpty() && token.endsWith("/env")) {
+              continue;
+            }
+            if (command.isEmpty() && token.startsWith("-")) {
+              continue;
+            }
+            command.add(token);
+          }
+        }
+      } catch (IOException e) {
+        command.clear();
+      }
+    }
+
+    if (command.isEmpty()) {
+      command.add("python3");
+    }
+    return command;
+  }
+
+  private static synchronized Path getWorkerScript() throws IOException {
+    if (workerScript == null) {
+      Path script = Files.createTempFile("ansible-worker", ".py");
+      try (InputStream in = AnsibleWorkerPool.class.getClassLoader().getResourceAsStream(WORKER_SCRIPT)) {
+        if (in == null) {
+          throw new IOException("missing " + WORKER_SCRIPT + " resource");
+        }
+        Files.copy(in, script, StandardCopyOption.REPLACE_EXISTING);
+      }
+      script.toFile().deleteOnExit();
+      workerScript = script;
+    }
+    return workerScript;
+  }
+}
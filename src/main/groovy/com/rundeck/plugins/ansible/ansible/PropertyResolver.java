@@ -40,6 +40,61 @@ public class PropertyResolver {
         }
     }
 
+    /**
+     * Same as {@link #resolveProperty(String, String, String, Framework, INodeEntry, Map)}, reading the
+     * project and framework properties from the snapshot of the execution.
+     */
+    public static String resolveProperty(
+            final String attribute,
+            final String defaultValue,
+            final PropertySnapshot snapshot,
+            final INodeEntry node,
+            final Map<String, Object> jobConf
+    )
+    {
+        if ( jobConf != null && jobConf.containsKey(attribute) ) {
+            return (String) jobConf.get(attribute);
+        } else if ( node != null && null != node.getAttributes().get(attribute)) {
+            return node.getAttributes().get(attribute);
+        }
+        String value = snapshot.get(attribute);
+        return value != null ? value : defaultValue;
+    }
+
+    public static Integer resolveIntProperty(
+            final String attribute,
+            final Integer defaultValue,
+            final PropertySnapshot snapshot,
+            final INodeEntry node,
+            final Map<String, Object> jobConf
+    ) throws ConfigurationException
+    {
+        return toInteger(attribute, resolveProperty(attribute, null, snapshot, node, jobConf), defaultValue);
+    }
+
+    public static Long resolveLongProperty(
+            final String attribute,
+            final Long defaultValue,
+            final PropertySnapshot snapshot,
+            final INodeEntry node,
+            final Map<String, Object> jobConf
+    ) throws ConfigurationException
+    {
+        return toLong(attribute, resolveProperty(attribute, null, snapshot, node, jobConf), defaultValue);
+    }
+
+    public static Boolean resolveBooleanProperty(
+            final String attribute,
+            final Boolean defaultValue,
+            final PropertySnapshot snapshot,
+            final INodeEntry node,
+            final Map<String, Object> jobConf
+    )
+    {
+        final String string = resolveProperty(attribute, null, snapshot, node, jobConf);
+        return null != string ? Boolean.parseBoolean(string) : defaultValue;
+    }
+
     public static String resolveJobProperty(
             final String attribute,
             final String defaultValue,
@@ -66,8 +121,13 @@ public class PropertyResolver {
     ) throws ConfigurationException
     {
 
+        return toInteger(attribute, resolveProperty(attribute, null, frameworkProject, framework, node, jobConf), defaultValue);
+    }
+
+    private static Integer toInteger(final String attribute, final String string, final Integer defaultValue)
+            throws ConfigurationException
+    {
         Integer value = defaultValue;
-        final String string = resolveProperty(attribute, null, frameworkProject, framework, node, jobConf);
         if (null != string) {
             try {
                 value = Integer.parseInt(string);
@@ -89,8 +149,13 @@ public class PropertyResolver {
             ) throws ConfigurationException
     {
 
+        return toLong(attribute, resolveProperty(attribute, null, frameworkProject, framework, node, jobConf), defaultValue);
+    }
+
+    private static Long toLong(final String attribute, final String string, final Long defaultValue)
+            throws ConfigurationException
+    {
         Long value = defaultValue;
-        final String string = resolveProperty(attribute, null, frameworkProject, framework, node, jobConf);
         if (null != string) {
             try {
                 value = Long.parseLong(string);
@@ -0,0 +1,86 @@
+package com.rundeck.plugins.ansible.ansible;
+
+import com.dtolabs.rundeck.core.common.Framework;
+import com.dtolabs.rundeck.core.execution.ExecutionContext;
+import com.rundeck.plugins.ansible.util.AnsibleUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Project and framework layers of the {@link PropertyResolver} lookups, resolved once per attribute
+ * and shared by every builder of the same execution: the runner of each node, the secret bundle and
+ * the secret paths. Job configuration and node attributes are still looked up on every call as they
+ * differ per step and node.
+ */
+public class PropertySnapshot {
+
+  private static final int MAX_EXECUTIONS = 64;
+  private static final String MISSING = new String("missing");
+
+  // most recently used executions, later steps of a long execution keep finding their snapshot
+  private static final Map<String, PropertySnapshot> EXECUTIONS =
+      new LinkedHashMap<String, PropertySnapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PropertySnapshot> eldest) {
+          return size() > MAX_EXECUTIONS;
+        }
+      };
+
+  /**
+   * @return the snapshot of the execution, or a snapshot private to the caller if the context
+   * does not tell the execution id
+   */
+  public static PropertySnapshot forExecution(ExecutionContext context, Framework framework, String project) {
+    String key = AnsibleUtil.getExecutionScope(context);
+    if (key == null) {
+      return new PropertySnapshot(framework, project);
+    }
+    synchronized (EXECUTIONS) {
+      PropertySnapshot snapshot = EXECUTIONS.get(key);
+      if (snapshot == null || snapshot.framework != framework) {
+        snapshot = new PropertySnapshot(framework, project);
+        EXECUTIONS.put(key, snapshot);
+      }
+      return snapshot;
+    }
+  }
+
+  private final Framework framework;
+  private final String project;
+  private final Map<String, String> values = new ConcurrentHashMap<>();
+
+  public PropertySnapshot(Framework framework, String project) {
+    this.framework = framework;
+    this.project = project;
+  }
+
+  /**
+   * @return the non empty "project.X" project property, else the "framework.X" framework property, else null
+   */
+  public String get(String attribute) {
+    String value = values.get(attribute);
+    if (value == null) {
+      value = lookup(attribute);
+      values.put(attribute, value == null ? MISSING : value);
+      return value;
+    }
+    return value == MISSING ? null : value;
+  }
+
+  private String lookup(String attribute) {
+    String projectProperty = AnsibleDescribable.PROJ_PROP_PREFIX + attribute;
+    if (framework.hasProjectProperty(projectProperty, project)) {
+      String value = framework.getProjectProperty(project, projectProperty);
+      if (!"".equals(value)) {
+        return value;
+      }
+    }
+    String frameworkProperty = AnsibleDescribable.FWK_PROP_PREFIX + attribute;
+    if (framework.hasProperty(frameworkProperty)) {
+      return framework.getProperty(frameworkProperty);
+    }
+    return null;
+  }
+}
@@ -2,10 +2,13 @@ package com.rundeck.plugins.ansible.plugin;
 
 import com.dtolabs.rundeck.core.execution.proxy.ProxySecretBundleCreator;
 import com.dtolabs.rundeck.core.execution.proxy.SecretBundle;
+import com.rundeck.plugins.ansible.ansible.AnsibleCommandBatcher;
+import com.rundeck.plugins.ansible.ansible.AnsibleDeferredScripts;
 import com.rundeck.plugins.ansible.ansible.AnsibleDescribable;
 import com.rundeck.plugins.ansible.ansible.AnsibleException.AnsibleFailureReason;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunner;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunnerBuilder;
+import com.rundeck.plugins.ansible.ansible.PropertyResolver;
 import com.dtolabs.rundeck.core.common.INodeEntry;
 import com.dtolabs.rundeck.core.common.IRundeckProject;
 import com.dtolabs.rundeck.core.execution.ExecutionContext;
@@ -46,6 +49,7 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
         builder.property(SSH_KEY_FILE_PROP);
         builder.property(SSH_KEY_STORAGE_PROP);
         builder.property(SSH_TIMEOUT_PROP);
+        builder.property(SSH_CONTROL_PERSIST_PROP);
         builder.property(SSH_USE_AGENT);
         builder.property(SSH_PASSPHRASE);
         builder.property(SSH_PASSPHRASE_OPTION);
@@ -55,6 +59,9 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
         builder.property(VAULT_KEY_FILE_PROP);
         builder.property(VAULT_KEY_STORAGE_PROP);
+        builder.property(FILE_COPIER_BATCH_PROP);
+        builder.property(FILE_COPIER_BATCH_WINDOW_PROP);
+        builder.property(FILE_COPIER_FORKS_PROP);
         builder.mapping(ANSIBLE_CONFIG_FILE_PATH,PROJ_PROP_PREFIX + ANSIBLE_CONFIG_FILE_PATH);
         builder.frameworkMapping(ANSIBLE_CONFIG_FILE_PATH,FWK_PROP_PREFIX + ANSIBLE_CONFIG_FILE_PATH);
         builder.mapping(ANSIBLE_VAULT_PATH,PROJ_PROP_PREFIX + ANSIBLE_VAULT_PATH);
@@ -67,22 +74,38 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
         builder.frameworkMapping(ANSIBLE_SSH_PASSPHRASE_OPTION,FWK_PROP_PREFIX + ANSIBLE_SSH_PASSPHRASE_OPTION);
         builder.mapping(ANSIBLE_SSH_USE_AGENT,PROJ_PROP_PREFIX + ANSIBLE_SSH_USE_AGENT);
         builder.frameworkMapping(ANSIBLE_SSH_USE_AGENT,FWK_PROP_PREFIX + ANSIBLE_SSH_USE_AGENT);
+        builder.mapping(ANSIBLE_SSH_CONTROL_PERSIST,PROJ_PROP_PREFIX + ANSIBLE_SSH_CONTROL_PERSIST);
+        builder.frameworkMapping(ANSIBLE_SSH_CONTROL_PERSIST,FWK_PROP_PREFIX + ANSIBLE_SSH_CONTROL_PERSIST);
+        builder.mapping(ANSIBLE_FILE_COPIER_BATCH,PROJ_PROP_PREFIX + ANSIBLE_FILE_COPIER_BATCH);
+        builder.frameworkMapping(ANSIBLE_FILE_COPIER_BATCH,FWK_PROP_PREFIX + ANSIBLE_FILE_COPIER_BATCH);
+        builder.mapping(ANSIBLE_FILE_COPIER_BATCH_WINDOW,PROJ_PROP_PREFIX + ANSIBLE_FILE_COPIER_BATCH_WINDOW);
+        builder.frameworkMapping(ANSIBLE_FILE_COPIER_BATCH_WINDOW,FWK_PROP_PREFIX + ANSIBLE_FILE_COPIER_BATCH_WINDOW);
+        builder.mapping(ANSIBLE_FILE_COPIER_FORKS,PROJ_PROP_PREFIX + ANSIBLE_FILE_COPIER_FORKS);
+        builder.frameworkMapping(ANSIBLE_FILE_COPIER_FORKS,FWK_PROP_PREFIX + ANSIBLE_FILE_COPIER_FORKS);
         DESC=builder.build();
   }
 
   @Override
   public String copyFileStream(ExecutionContext context, InputStream input, INodeEntry node, String destination) throws FileCopierException {
-    return doFileCopy(context, null, input, null, node, destination);
+    return doFileCopy(context, null, input, null, node, destination, null);
   }
 
   @Override
   public String copyFile(ExecutionContext context, File file, INodeEntry node, String destination) throws FileCopierException {
-    return doFileCopy(context, file, null, null, node, destination);
+    return doFileCopy(context, file, null, null, node, destination, null);
   }
 
   @Override
   public String copyScriptContent(ExecutionContext context, String script, INodeEntry node, String destination) throws FileCopierException {
-    return doFileCopy(context, null, null, script, node, destination);
+    return doFileCopy(context, null, null, script, node, destination, null);
+  }
+
+  /**
+   * Copies a script whose copy was deferred, executable by its owner as the chmod dispatched by
+   * Rundeck for it already returned.
+   */
+  String copyExecutable(ExecutionContext context, File file, INodeEntry node, String destination) throws FileCopierException {
+    return doFileCopy(context, file, null, null, node, destination, "u+x");
   }
 
   private String doFileCopy(
@@ -91,7 +114,8 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
     final InputStream input,
     final String script,
     final INodeEntry node,
-    String destinationPath
+    String destinationPath,
+    final String mode
   ) throws FileCopierException {
 
     AnsibleRunner runner = null;
@@ -124,7 +148,26 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
     File localTempFile = scriptFile != null ?
       scriptFile : JschScpFileCopier.writeTempFile(context, null, input, script);
 
+    try {
+      if (script != null && !windows && PropertyResolver.resolveBooleanProperty(
+              AnsibleDescribable.ANSIBLE_SCRIPT_DISPATCH,
+              false,
+              context.getFrameworkProject(),
+              context.getFramework(),
+              node,
+              null)) {
+        // the node executor copies and runs the script with the script module
+        AnsibleDeferredScripts.defer(node, destinationPath, localTempFile);
+        return destinationPath;
+      }
+    } catch (ConfigurationException e) {
+      throw new FileCopierException("Error configuring Ansible.",AnsibleFailureReason.ParseArgumentsError, e);
+    }
+
     String cmdArgs = "src='" + localTempFile.getAbsolutePath() + "' dest='" + destinationPath + "'";
+    if (mode != null) {
+      cmdArgs += " mode='" + mode + "'";
+    }
 
     Map<String, Object> jobConf = new HashMap<String, Object>();
 
@@ -143,6 +186,23 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
       jobConf.put(AnsibleDescribable.ANSIBLE_DEBUG,"False");
     }
 
+    try {
+      if (scriptFile != null && PropertyResolver.resolveBooleanProperty(
+              AnsibleDescribable.ANSIBLE_FILE_COPIER_BATCH,
+              false,
+              context.getFrameworkProject(),
+              context.getFramework(),
+              node,
+              null)) {
+        // only a copied file is the same source for every node, streams and scripts get a temp file per node
+        if (copyBatched(context, node, jobConf)) {
+          return destinationPath;
+        }
+      }
+    } catch (ConfigurationException e) {
+      throw new FileCopierException("Error configuring Ansible.",AnsibleFailureReason.ParseArgumentsError, e);
+    }
+
     AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, context, context.getFramework(), jobConf);
 
 
@@ -156,13 +216,69 @@ public class AnsibleFileCopier implements FileCopier, AnsibleDescribable, ProxyS
           runner.run();
     } catch (Exception e) {
           throw new FileCopierException("Error running Ansible.", AnsibleFailureReason.AnsibleError, e);
+    } finally {
+        builder.cleanupTempFiles();
     }
 
-    builder.cleanupTempFiles();
-
     return destinationPath;
   }
 
+  /**
+   * Copies the file as part of a batch shared with the other nodes of the same execution copying
+   * the same file to the same destination with the same ansible settings.
+   *
+   * @return false if the copy can't be batched
+   */
+  private boolean copyBatched(final ExecutionContext context, final INodeEntry node, final Map<String, Object> jobConf)
+          throws ConfigurationException, FileCopierException {
+    String scope = AnsibleUtil.getExecutionScope(context);
+    if (scope == null || !AnsibleCommandBatcher.isDispatchedInParallel(context)) {
+      return false;
+    }
+
+    Integer window = PropertyResolver.resolveIntProperty(
+                        AnsibleDescribable.ANSIBLE_FILE_COPIER_BATCH_WINDOW,
+                        AnsibleDescribable.DEFAULT_ANSIBLE_FILE_COPIER_BATCH_WINDOW,
+                        context.getFrameworkProject(),
+                        context.getFramework(),
+                        node,
+                        null
+                      );
+    Integer forks = PropertyResolver.resolveIntProperty(
+                        AnsibleDescribable.ANSIBLE_FILE_COPIER_FORKS,
+                        null,
+                        context.getFrameworkProject(),
+                        context.getFramework(),
+                        node,
+                        null
+                      );
+
+    AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, context, context.getFramework(), jobConf);
+    String batchKey = scope + "\ncopy\n" + forks + "\n" + builder.getRunnerSettingsKey();
+
+    AnsibleCommandBatcher.HostResult result;
+    try {
+      result = AnsibleCommandBatcher.getInstance().execute(batchKey, node, window,
+              nodes -> AnsibleCommandBatcher.runAdHoc(context, node, jobConf, nodes, forks));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FileCopierException("Ansible copy interrupted.", AnsibleFailureReason.Interrupted, e);
+    } catch (ConfigurationException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new FileCopierException("Error running Ansible.", AnsibleFailureReason.AnsibleError, e);
+    }
+
+    for (String line : result.getOutput()) {
+      System.out.println(line);
+    }
+
+    if (!result.isSuccess()) {
+      throw new FileCopierException(result.getMessage(), AnsibleFailureReason.AnsibleNonZero);
+    }
+    return true;
+  }
+
   @Override
   public Description getDescription() {
     return DESC;
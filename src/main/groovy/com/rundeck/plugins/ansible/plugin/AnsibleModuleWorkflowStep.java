@@ -51,6 +51,12 @@ public class AnsibleModuleWorkflowStep implements StepPlugin, AnsibleDescribable
         builder.property(BECOME_AUTH_TYPE_PROP);
         builder.property(BECOME_USER_PROP);
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
+        builder.property(RETRY_ATTEMPTS_PROP);
+        builder.property(RETRY_BACKOFF_PROP);
+        builder.property(RETRY_ON_PROP);
+        builder.property(GENERATE_INVENTORY_LIMIT_VARS_PROP);
+        builder.mapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,PROJ_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
+        builder.frameworkMapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,FWK_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
 
         DESC = builder.build();
     }
@@ -93,9 +99,9 @@ public class AnsibleModuleWorkflowStep implements StepPlugin, AnsibleDescribable
             throw new StepException(e.getMessage(), e, e.getFailureReason());
         } catch (Exception e) {
             throw new StepException(e.getMessage(), e, AnsibleException.AnsibleFailureReason.AnsibleError);
+        } finally {
+            builder.cleanupTempFiles();
         }
-
-        builder.cleanupTempFiles();
     }
 
     @Override
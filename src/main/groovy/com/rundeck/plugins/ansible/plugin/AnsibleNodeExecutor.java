@@ -3,6 +3,8 @@ package com.rundeck.plugins.ansible.plugin;
 import com.dtolabs.rundeck.core.execution.proxy.ProxySecretBundleCreator;
 import com.dtolabs.rundeck.core.execution.proxy.SecretBundle;
 import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.rundeck.plugins.ansible.ansible.AnsibleCommandBatcher;
+import com.rundeck.plugins.ansible.ansible.AnsibleDeferredScripts;
 import com.rundeck.plugins.ansible.ansible.AnsibleDescribable;
 import com.rundeck.plugins.ansible.ansible.AnsibleException;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunner;
@@ -10,6 +12,7 @@ import com.rundeck.plugins.ansible.ansible.AnsibleRunnerBuilder;
 import com.rundeck.plugins.ansible.ansible.PropertyResolver;
 import com.dtolabs.rundeck.core.common.INodeEntry;
 import com.dtolabs.rundeck.core.execution.ExecutionContext;
+import com.dtolabs.rundeck.core.execution.service.FileCopierException;
 import com.dtolabs.rundeck.core.execution.service.NodeExecutor;
 import com.dtolabs.rundeck.core.execution.service.NodeExecutorResult;
 import com.dtolabs.rundeck.core.execution.service.NodeExecutorResultImpl;
@@ -19,6 +22,8 @@ import com.dtolabs.rundeck.plugins.ServiceNameConstants;
 import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
 import com.rundeck.plugins.ansible.util.AnsibleUtil;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +51,7 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
         builder.property(SSH_KEY_FILE_PROP);
         builder.property(SSH_KEY_STORAGE_PROP);
         builder.property(SSH_TIMEOUT_PROP);
+        builder.property(SSH_CONTROL_PERSIST_PROP);
         builder.property(SSH_USE_AGENT);
         builder.property(SSH_PASSPHRASE);
         builder.property(SSH_PASSPHRASE_OPTION);
@@ -55,6 +61,9 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
         builder.property(VAULT_KEY_FILE_PROP);
         builder.property(VAULT_KEY_STORAGE_PROP);
+        builder.property(NODE_EXECUTOR_BATCH_PROP);
+        builder.property(NODE_EXECUTOR_BATCH_WINDOW_PROP);
+        builder.property(SCRIPT_DISPATCH_PROP);
         builder.mapping(ANSIBLE_BINARIES_DIR_PATH,PROJ_PROP_PREFIX + ANSIBLE_BINARIES_DIR_PATH);
         builder.frameworkMapping(ANSIBLE_BINARIES_DIR_PATH,FWK_PROP_PREFIX + ANSIBLE_BINARIES_DIR_PATH);
         builder.mapping(ANSIBLE_EXECUTABLE,PROJ_PROP_PREFIX + ANSIBLE_EXECUTABLE);
@@ -71,6 +80,8 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
         builder.frameworkMapping(ANSIBLE_SSH_USER,FWK_PROP_PREFIX + ANSIBLE_SSH_USER);
         builder.mapping(ANSIBLE_SSH_TIMEOUT,PROJ_PROP_PREFIX + ANSIBLE_SSH_TIMEOUT);
         builder.frameworkMapping(ANSIBLE_SSH_TIMEOUT,FWK_PROP_PREFIX + ANSIBLE_SSH_TIMEOUT);
+        builder.mapping(ANSIBLE_SSH_CONTROL_PERSIST,PROJ_PROP_PREFIX + ANSIBLE_SSH_CONTROL_PERSIST);
+        builder.frameworkMapping(ANSIBLE_SSH_CONTROL_PERSIST,FWK_PROP_PREFIX + ANSIBLE_SSH_CONTROL_PERSIST);
         builder.mapping(ANSIBLE_SSH_KEYPATH,PROJ_PROP_PREFIX + ANSIBLE_SSH_KEYPATH);
         builder.frameworkMapping(ANSIBLE_SSH_KEYPATH,FWK_PROP_PREFIX + ANSIBLE_SSH_KEYPATH);
         builder.mapping(ANSIBLE_SSH_KEYPATH_STORAGE_PATH,PROJ_PROP_PREFIX + ANSIBLE_SSH_KEYPATH_STORAGE_PATH);
@@ -95,6 +106,12 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
         builder.frameworkMapping(ANSIBLE_VAULT_PATH,FWK_PROP_PREFIX + ANSIBLE_VAULT_PATH);
         builder.mapping(ANSIBLE_VAULTSTORE_PATH,PROJ_PROP_PREFIX + ANSIBLE_VAULTSTORE_PATH);
         builder.frameworkMapping(ANSIBLE_VAULTSTORE_PATH,FWK_PROP_PREFIX + ANSIBLE_VAULTSTORE_PATH);
+        builder.mapping(ANSIBLE_NODE_EXECUTOR_BATCH,PROJ_PROP_PREFIX + ANSIBLE_NODE_EXECUTOR_BATCH);
+        builder.frameworkMapping(ANSIBLE_NODE_EXECUTOR_BATCH,FWK_PROP_PREFIX + ANSIBLE_NODE_EXECUTOR_BATCH);
+        builder.mapping(ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW,PROJ_PROP_PREFIX + ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW);
+        builder.frameworkMapping(ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW,FWK_PROP_PREFIX + ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW);
+        builder.mapping(ANSIBLE_SCRIPT_DISPATCH,PROJ_PROP_PREFIX + ANSIBLE_SCRIPT_DISPATCH);
+        builder.frameworkMapping(ANSIBLE_SCRIPT_DISPATCH,FWK_PROP_PREFIX + ANSIBLE_SCRIPT_DISPATCH);
 
         DESC=builder.build();
   }
@@ -115,6 +132,13 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
       }
     }
 
+    if (!windows) {
+        NodeExecutorResult scriptResult = executeDeferredScript(context, command, node);
+        if (scriptResult != null) {
+            return scriptResult;
+        }
+    }
+
     String executable = PropertyResolver.resolveProperty(
                           AnsibleDescribable.ANSIBLE_EXECUTABLE,
                           AnsibleDescribable.DEFAULT_ANSIBLE_EXECUTABLE,
@@ -167,6 +191,22 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
       jobConf.put(AnsibleDescribable.ANSIBLE_DEBUG,"False");
     }
 
+    try {
+        if (PropertyResolver.resolveBooleanProperty(
+                AnsibleDescribable.ANSIBLE_NODE_EXECUTOR_BATCH,
+                false,
+                context.getFrameworkProject(),
+                context.getFramework(),
+                node,
+                null)) {
+            NodeExecutorResult result = executeBatched(context, node, jobConf);
+            if (result != null) {
+                return result;
+            }
+        }
+    } catch (ConfigurationException e) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.ParseArgumentsError, e.getMessage(), node);
+    }
 
     AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, context, context.getFramework(), jobConf);
 
@@ -180,10 +220,151 @@ public class AnsibleNodeExecutor implements NodeExecutor, AnsibleDescribable, Pr
         runner.run();
     } catch (Exception e) {
         return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.AnsibleError, e.getMessage(), node);
+    } finally {
+        builder.cleanupTempFiles();
+    }
+
+    return NodeExecutorResultImpl.createSuccess(node);
+  }
+
+  /**
+   * Runs the commands of a script dispatch whose copy was deferred by the file copier: the command
+   * running the script is run with the script module, which copies the local script, runs and
+   * removes it, so the chmod and rm commands have nothing left to do.
+   *
+   * @return the node result, or null if the command is not about a deferred script
+   */
+  private NodeExecutorResult executeDeferredScript(final ExecutionContext context, final String[] command, final INodeEntry node) {
+    if (command.length == 3 && "chmod".equals(command[0]) && "+x".equals(command[1])
+            && AnsibleDeferredScripts.get(node, command[2]) != null) {
+        return NodeExecutorResultImpl.createSuccess(node);
+    }
+    if (command.length == 3 && "rm".equals(command[0]) && "-f".equals(command[1])) {
+        File script = AnsibleDeferredScripts.remove(node, command[2]);
+        if (script == null) {
+            return null;
+        }
+        script.delete();
+        return NodeExecutorResultImpl.createSuccess(node);
+    }
+
+    // the script runs directly or through an interpreter, e.g. "bash" or "sudo -u bob bash"
+    int index = -1;
+    for (int i = 0; i < command.length; i++) {
+        if (AnsibleDeferredScripts.get(node, command[i]) != null) {
+            index = i;
+            break;
+        }
+    }
+    for (int i = 0; i < index; i++) {
+        if (!command[i].matches("[^\\s'\"]+")) {
+            // the interpreter can't be passed as the executable of the script module
+            index = -1;
+            break;
+        }
+    }
+
+    if (index < 0) {
+        // e.g. interpreter arguments quoted with the script, copy it and run the command as usual
+        String remotePath = AnsibleDeferredScripts.find(node, String.join(" ", command));
+        if (remotePath == null) {
+            return null;
+        }
+        File script = AnsibleDeferredScripts.remove(node, remotePath);
+        try {
+            new AnsibleFileCopier().copyExecutable(context, script, node, remotePath);
+        } catch (FileCopierException e) {
+            return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.AnsibleError, e.getMessage(), node);
+        } finally {
+            script.delete();
+        }
+        return null;
+    }
+
+    File script = AnsibleDeferredScripts.get(node, command[index]);
+    StringBuilder cmdArgs = new StringBuilder();
+    if (index > 0) {
+        cmdArgs.append("executable=\"").append(String.join(" ", Arrays.copyOfRange(command, 0, index))).append("\" ");
+    }
+    cmdArgs.append("'").append(script.getAbsolutePath()).append("'");
+    for (int i = index + 1; i < command.length; i++) {
+        cmdArgs.append(" '").append(command[i]).append("'");
     }
 
-    builder.cleanupTempFiles();
+    Map<String, Object> jobConf = new HashMap<String, Object>();
+    jobConf.put(AnsibleDescribable.ANSIBLE_MODULE,"script");
+    jobConf.put(AnsibleDescribable.ANSIBLE_MODULE_ARGS,cmdArgs.toString());
+    jobConf.put(AnsibleDescribable.ANSIBLE_LIMIT,node.getNodename());
 
+    if ("true".equals(System.getProperty("ansible.debug"))) {
+      jobConf.put(AnsibleDescribable.ANSIBLE_DEBUG,"True");
+    } else {
+      jobConf.put(AnsibleDescribable.ANSIBLE_DEBUG,"False");
+    }
+
+    AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, context, context.getFramework(), jobConf);
+    AnsibleRunner runner;
+    try {
+        // print the script output like the shell module does
+        runner = builder.buildAnsibleRunner().stdoutCallback(AnsibleRunner.SCRIPT_CALLBACK);
+    } catch (ConfigurationException e) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.ParseArgumentsError, e.getMessage(), node);
+    }
+
+    try {
+        runner.run();
+    } catch (Exception e) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.AnsibleError, e.getMessage(), node);
+    } finally {
+        builder.cleanupTempFiles();
+    }
+    return NodeExecutorResultImpl.createSuccess(node);
+  }
+
+  /**
+   * Runs the command as part of a batch shared with the other nodes of the same execution
+   * that resolve to the same ansible settings.
+   *
+   * @return the node result, or null if the command can't be batched
+   */
+  private NodeExecutorResult executeBatched(final ExecutionContext context, final INodeEntry node, final Map<String, Object> jobConf) throws ConfigurationException {
+    String scope = AnsibleUtil.getExecutionScope(context);
+    if (scope == null || !AnsibleCommandBatcher.isDispatchedInParallel(context)) {
+      return null;
+    }
+
+    Integer window = PropertyResolver.resolveIntProperty(
+                        AnsibleDescribable.ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW,
+                        AnsibleDescribable.DEFAULT_ANSIBLE_NODE_EXECUTOR_BATCH_WINDOW,
+                        context.getFrameworkProject(),
+                        context.getFramework(),
+                        node,
+                        null
+                      );
+
+    AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(node, context, context.getFramework(), jobConf);
+    String batchKey = scope + "\n" + builder.getRunnerSettingsKey();
+
+    AnsibleCommandBatcher.HostResult result;
+    try {
+        result = AnsibleCommandBatcher.getInstance().execute(batchKey, node, window,
+                nodes -> AnsibleCommandBatcher.runAdHoc(context, node, jobConf, nodes, null));
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.Interrupted, e.getMessage(), node);
+    } catch (ConfigurationException e) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.ParseArgumentsError, e.getMessage(), node);
+    } catch (Exception e) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.AnsibleError, e.getMessage(), node);
+    }
+
+    for (String line : result.getOutput()) {
+        System.out.println(line);
+    }
+
+    if (!result.isSuccess()) {
+        return NodeExecutorResultImpl.createFailure(AnsibleException.AnsibleFailureReason.AnsibleNonZero, result.getMessage(), node);
+    }
     return NodeExecutorResultImpl.createSuccess(node);
   }
 
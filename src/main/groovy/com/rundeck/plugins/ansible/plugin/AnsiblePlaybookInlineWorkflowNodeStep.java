@@ -55,6 +55,9 @@ public class AnsiblePlaybookInlineWorkflowNodeStep implements NodeStepPlugin, An
         builder.property(BECOME_AUTH_TYPE_PROP);
         builder.property(BECOME_USER_PROP);
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
+        builder.property(GENERATE_INVENTORY_LIMIT_VARS_PROP);
+        builder.mapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,PROJ_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
+        builder.frameworkMapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,FWK_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
 
         DESC=builder.build();
     }
@@ -103,10 +106,10 @@ public class AnsiblePlaybookInlineWorkflowNodeStep implements NodeStepPlugin, An
             failureData.put("message",e.getMessage());
             failureData.put("ansible-config", builder.getConfigFile());
             throw new NodeStepException(e.getMessage(),e, AnsibleException.AnsibleFailureReason.AnsibleError, failureData, e.getMessage());
+        } finally {
+            builder.cleanupTempFiles();
         }
 
-        builder.cleanupTempFiles();
-
     }
 
     @Override
@@ -5,6 +5,7 @@ import com.dtolabs.rundeck.core.execution.proxy.ProxySecretBundleCreator;
 import com.dtolabs.rundeck.core.execution.proxy.SecretBundle;
 import com.rundeck.plugins.ansible.ansible.AnsibleDescribable;
 import com.rundeck.plugins.ansible.ansible.AnsibleException;
+import com.rundeck.plugins.ansible.ansible.AnsibleNodeResults;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunner;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunnerBuilder;
 import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
@@ -56,6 +57,13 @@ public class AnsiblePlaybookInlineWorkflowStep implements StepPlugin, AnsibleDes
         builder.property(BECOME_USER_PROP);
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
         builder.property(DISABLE_LIMIT_PROP);
+        builder.property(NODE_RESULTS_PROP);
+        builder.property(RETRY_ATTEMPTS_PROP);
+        builder.property(RETRY_BACKOFF_PROP);
+        builder.property(RETRY_ON_PROP);
+        builder.property(GENERATE_INVENTORY_LIMIT_VARS_PROP);
+        builder.mapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,PROJ_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
+        builder.frameworkMapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,FWK_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
 
         DESC = builder.build();
     }
@@ -84,8 +92,14 @@ public class AnsiblePlaybookInlineWorkflowStep implements StepPlugin, AnsibleDes
 
         AnsibleRunnerBuilder builder = new AnsibleRunnerBuilder(context.getExecutionContext(), context.getFramework(), context.getNodes(), configuration);
 
+        AnsibleNodeResults nodeResults = null;
+
         try {
             runner = builder.buildAnsibleRunner();
+            if (builder.getNodeResults()) {
+                nodeResults = new AnsibleNodeResults();
+                runner.eventListener(nodeResults);
+            }
         } catch (ConfigurationException e) {
             throw new StepException("Error configuring Ansible runner: " + e.getMessage(), e, AnsibleException.AnsibleFailureReason.ParseArgumentsError);
         }
@@ -97,6 +111,9 @@ public class AnsiblePlaybookInlineWorkflowStep implements StepPlugin, AnsibleDes
             Map<String, Object> failureData = new HashMap<>();
             failureData.put("message", e.getMessage());
             failureData.put("ansible-config", builder.getConfigFile());
+            if (nodeResults != null) {
+                AnsibleUtil.addNodeResults(context.getExecutionContext(), nodeResults, e, e.getFailureReason(), failureData);
+            }
 
             throw new StepException(e.getMessage(), e, e.getFailureReason(), failureData);
         } catch (Exception e) {
@@ -106,9 +123,13 @@ public class AnsiblePlaybookInlineWorkflowStep implements StepPlugin, AnsibleDes
 
 
             throw new StepException(e.getMessage(), e, AnsibleException.AnsibleFailureReason.AnsibleError, failureData);
+        } finally {
+            builder.cleanupTempFiles();
         }
 
-        builder.cleanupTempFiles();
+        if (nodeResults != null) {
+            AnsibleUtil.addNodeResults(context.getExecutionContext(), nodeResults, null, null, null);
+        }
     }
 
     @Override
@@ -54,6 +54,9 @@ public class AnsiblePlaybookWorflowNodeStep implements NodeStepPlugin, AnsibleDe
         builder.property(BECOME_AUTH_TYPE_PROP);
         builder.property(BECOME_USER_PROP);
         builder.property(BECOME_PASSWORD_STORAGE_PROP);
+        builder.property(GENERATE_INVENTORY_LIMIT_VARS_PROP);
+        builder.mapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,PROJ_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
+        builder.frameworkMapping(ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS,FWK_PROP_PREFIX + ANSIBLE_GENERATE_INVENTORY_LIMIT_VARS);
 
         DESC=builder.build();
     }
@@ -94,9 +97,9 @@ public class AnsiblePlaybookWorflowNodeStep implements NodeStepPlugin, AnsibleDe
             throw new NodeStepException(e.getMessage(), e.getFailureReason(),e.getMessage());
         } catch (Exception e) {
             throw new NodeStepException(e.getMessage(),AnsibleException.AnsibleFailureReason.AnsibleError,e.getMessage());
+        } finally {
+            builder.cleanupTempFiles();
         }
-
-        builder.cleanupTempFiles();
     }
 
     @Override
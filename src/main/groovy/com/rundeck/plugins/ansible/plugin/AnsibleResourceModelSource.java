@@ -3,13 +3,15 @@ package com.rundeck.plugins.ansible.plugin;
 import com.dtolabs.rundeck.core.execution.proxy.DefaultSecretBundle;
 import com.dtolabs.rundeck.core.execution.proxy.ProxySecretBundleCreator;
 import com.dtolabs.rundeck.core.execution.proxy.SecretBundle;
-import com.dtolabs.rundeck.core.storage.ResourceMeta;
 import com.dtolabs.rundeck.core.storage.StorageTree;
 import com.dtolabs.rundeck.core.storage.keys.KeyStorageTree;
+import com.rundeck.plugins.ansible.ansible.AnsibleAttributeMapping;
 import com.rundeck.plugins.ansible.ansible.AnsibleDescribable;
 import com.rundeck.plugins.ansible.ansible.AnsibleDescribable.AuthenticationType;
 import com.rundeck.plugins.ansible.ansible.AnsibleException;
+import com.rundeck.plugins.ansible.ansible.AnsibleFactCache;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunner;
+import com.rundeck.plugins.ansible.ansible.AnsibleSecretCache;
 import com.dtolabs.rundeck.core.common.Framework;
 import com.dtolabs.rundeck.core.common.INodeSet;
 import com.dtolabs.rundeck.core.common.NodeEntryImpl;
@@ -19,24 +21,40 @@ import com.dtolabs.rundeck.core.resources.ResourceModelSource;
 import com.dtolabs.rundeck.core.resources.ResourceModelSourceException;
 import com.dtolabs.rundeck.core.plugins.ScriptDataContextUtil;
 import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.rundeck.plugins.ansible.util.Listener;
+import com.rundeck.plugins.ansible.util.PrefixMatcher;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.rundeck.app.spi.Services;
-import org.rundeck.storage.api.PathUtil;
 import org.rundeck.storage.api.StorageException;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
 
 public class AnsibleResourceModelSource implements ResourceModelSource, ProxySecretBundleCreator {
 
@@ -52,12 +70,21 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
 
   private String inventory;
   private boolean gatherFacts;
+  private boolean inventoryList;
   private boolean ignoreErrors = false;
   private String limit;
   private String ignoreTagPrefix;
   private String extraTag;
   private boolean importInventoryVars;
   private String ignoreInventoryVars;
+  private PrefixMatcher specialVars;
+  private int ingestThreads;
+  private int gatherPartitions;
+  private int gatherConcurrency;
+  private String nodeCacheKey;
+  private long nodeSoftTtl;
+  private long nodeHardTtl;
+  private AnsibleAttributeMapping attributeMapping;
 
   protected String vaultPass;
   protected Boolean debug = false;
@@ -96,6 +123,94 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
 
   protected String becamePasswordStoragePath;
 
+  protected AnsibleFactCache factCache;
+  private int lastCacheHits;
+  private int lastGathered;
+  private long lastRefreshDuration;
+
+  private static final int MAX_CACHED_CONFIGURATIONS = 64;
+
+  // Last node set of the most recently used source configurations, see getNodes(). Configurations
+  // left behind by a reconfigured or removed source are dropped once unused
+  private static final Map<String, CachedNodes> NODE_CACHE =
+      new LinkedHashMap<String, CachedNodes>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedNodes> eldest) {
+          return size() > MAX_CACHED_CONFIGURATIONS;
+        }
+      };
+  private static final ExecutorService NODE_REFRESH = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "ansible-node-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static class CachedNodes {
+    INodeSet nodes;
+    long loadedAt;
+    FutureTask<INodeSet> refresh;
+  }
+
+  // Default Ansible interesting vars added as node attributes
+  // JSON-Path -> Attribute-Name
+  private static final Map<String, String> INTERESTING_ITEMS = new LinkedHashMap<>();
+
+  // Top level vars read when building a node, besides the attribute mapping
+  private static final Set<String> NODE_VARS = new HashSet<>();
+
+  static {
+    INTERESTING_ITEMS.put("ansible_form_factor", "form_factor");
+
+    INTERESTING_ITEMS.put("ansible_system_vendor", "system_vendor");
+
+    INTERESTING_ITEMS.put("ansible_product_name", "product_name");
+    INTERESTING_ITEMS.put("ansible_product_version", "product_version");
+    INTERESTING_ITEMS.put("ansible_product_serial", "product_serial");
+
+    INTERESTING_ITEMS.put("ansible_bios_version", "bios_version");
+    INTERESTING_ITEMS.put("ansible_bios_date", "bios_date");
+
+    INTERESTING_ITEMS.put("ansible_machine_id", "machine_id");
+
+    INTERESTING_ITEMS.put("ansible_virtualization_type", "virtualization_type");
+    INTERESTING_ITEMS.put("ansible_virtualization_role", "virtualization_role");
+
+    INTERESTING_ITEMS.put("ansible_selinux", "selinux");
+    INTERESTING_ITEMS.put("ansible_fips", "fips");
+
+    INTERESTING_ITEMS.put("ansible_service_mgr", "service_mgr");
+    INTERESTING_ITEMS.put("ansible_pkg_mgr", "pkg_mgr");
+
+    INTERESTING_ITEMS.put("ansible_distribution", "distribution");
+    INTERESTING_ITEMS.put("ansible_distribution_version", "distribution_version");
+    INTERESTING_ITEMS.put("ansible_distribution_major_version", "distribution_major_version");
+    INTERESTING_ITEMS.put("ansible_distribution_release", "distribution_release");
+    INTERESTING_ITEMS.put("ansible_lsb.codename", "lsb_codename");
+
+    INTERESTING_ITEMS.put("ansible_domain", "domain");
+
+    INTERESTING_ITEMS.put("ansible_date_time.tz", "tz");
+    INTERESTING_ITEMS.put("ansible_date_time.tz_offset", "tz_offset");
+
+    INTERESTING_ITEMS.put("ansible_processor_count", "processor_count");
+    INTERESTING_ITEMS.put("ansible_processor_cores", "processor_cores");
+    INTERESTING_ITEMS.put("ansible_processor_vcpus", "processor_vcpus");
+    INTERESTING_ITEMS.put("ansible_processor_threads_per_core", "processor_threads_per_core");
+
+    INTERESTING_ITEMS.put("ansible_userspace_architecture", "userspace_architecture");
+    INTERESTING_ITEMS.put("ansible_userspace_bits", "userspace_bits");
+
+    INTERESTING_ITEMS.put("ansible_memtotal_mb", "memtotal_mb");
+    INTERESTING_ITEMS.put("ansible_swaptotal_mb", "swaptotal_mb");
+    INTERESTING_ITEMS.put("ansible_processor.0", "processor0");
+    INTERESTING_ITEMS.put("ansible_processor.1", "processor1");
+
+    NODE_VARS.addAll(Arrays.asList(
+        "inventory_hostname", "ansible_host", "ansible_ssh_host",
+        "ansible_user", "ansible_ssh_user", "ansible_user_id",
+        "group_names", "ansible_lsb", "ansible_distribution", "ansible_distribution_version",
+        "ansible_os_family", "ansible_os_name", "ansible_architecture", "ansible_kernel"));
+  }
 
   public AnsibleResourceModelSource(final Framework framework) {
       this.framework = framework;
@@ -115,11 +230,22 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
         }
   }
 
-  private static Boolean skipVar(final String hostVar, final List<String> varList) {
-    for (final String specialVarString : varList) {
-      if (hostVar.startsWith(specialVarString)) return true;
-    }
-    return false;
+  private static int resolveIntProperty(
+            final String attribute,
+            final int defaultValue,
+            final Properties configuration,
+            final Map<String, Map<String, String>> dataContext
+  ) throws ConfigurationException
+  {
+        String value = resolveProperty(attribute, null, configuration, dataContext);
+        if (value == null || value.length() == 0) {
+          return defaultValue;
+        }
+        try {
+          return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          throw new ConfigurationException("Can't parse " + attribute + " value : " + e.getMessage());
+        }
   }
 
   public void setServices(Services services) {
@@ -138,6 +264,7 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
 
     inventory = resolveProperty(AnsibleDescribable.ANSIBLE_INVENTORY,null,configuration,executionDataContext);
     gatherFacts = "true".equals(resolveProperty(AnsibleDescribable.ANSIBLE_GATHER_FACTS,null,configuration,executionDataContext));
+    inventoryList = "true".equals(resolveProperty(AnsibleDescribable.ANSIBLE_INVENTORY_LIST,null,configuration,executionDataContext));
     ignoreErrors = "true".equals(resolveProperty(AnsibleDescribable.ANSIBLE_IGNORE_ERRORS,null,configuration,executionDataContext));
 
     limit = (String) resolveProperty(AnsibleDescribable.ANSIBLE_LIMIT,null,configuration,executionDataContext);
@@ -146,6 +273,42 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
     importInventoryVars = "true".equals(resolveProperty(AnsibleDescribable.ANSIBLE_IMPORT_INVENTORY_VARS,null,configuration,executionDataContext));
     ignoreInventoryVars = (String) resolveProperty(AnsibleDescribable.ANSIBLE_IGNORE_INVENTORY_VARS,null,configuration,executionDataContext);
 
+    // Ansible Special variables, as of Ansible 2.9, not imported as node attributes
+    // https://docs.ansible.com/ansible/latest/reference_appendices/special_variables.html
+    List<String> specialVarsList = new ArrayList<>();
+    specialVarsList.add("ansible_");  // most ansible vars prefix
+    specialVarsList.add("discovered_interpreter_python");
+    specialVarsList.add("facts");   // rundeck used to gather host_vars
+    specialVarsList.add("gather_subset");
+    specialVarsList.add("group_names");
+    specialVarsList.add("groups");
+    specialVarsList.add("hostvars");
+    specialVarsList.add("inventory_dir");
+    specialVarsList.add("inventory_file");
+    specialVarsList.add("inventory_hostname");
+    specialVarsList.add("inventory_hostname_short");
+    specialVarsList.add("module_setup");
+    specialVarsList.add("omit");
+    specialVarsList.add("play_hosts");
+    specialVarsList.add("playbook_dir");
+    specialVarsList.add("role_name");
+    specialVarsList.add("role_names");
+    specialVarsList.add("role_path");
+    specialVarsList.add("tmpdir");  // rundeck used to gather host_vars
+
+    if (ignoreInventoryVars != null && ignoreInventoryVars.length() > 0) {
+      String[] ignoreInventoryVarsStrings = ignoreInventoryVars.split(",");
+      for (String ignoreInventoryVarsString: ignoreInventoryVarsStrings) {
+        specialVarsList.add(ignoreInventoryVarsString.trim());
+      }
+    }
+    specialVars = new PrefixMatcher(specialVarsList);
+
+    Map<String, String> attributeRules = new LinkedHashMap<>(INTERESTING_ITEMS);
+    attributeRules.putAll(AnsibleAttributeMapping.parseRules(
+        resolveProperty(AnsibleDescribable.ANSIBLE_ATTRIBUTE_MAPPING,null,configuration,executionDataContext)));
+    attributeMapping = new AnsibleAttributeMapping(attributeRules);
+
     extraTag = (String) resolveProperty(AnsibleDescribable.ANSIBLE_EXTRA_TAG,null,configuration,executionDataContext);
 
     sshAuthType = resolveProperty(AnsibleDescribable.ANSIBLE_SSH_AUTH_TYPE,AuthenticationType.privateKey.name(),configuration,executionDataContext);
@@ -193,24 +356,58 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
     vaultPasswordPath = (String) resolveProperty(AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_STORAGE_PATH,null,configuration,executionDataContext);
 
     becamePasswordStoragePath = (String) resolveProperty(AnsibleDescribable.ANSIBLE_BECOME_PASSWORD_STORAGE_PATH,null,configuration,executionDataContext);
+
+    ingestThreads = resolveIntProperty(AnsibleDescribable.ANSIBLE_PARALLEL_INGEST_THREADS,0,configuration,executionDataContext);
+    gatherPartitions = resolveIntProperty(AnsibleDescribable.ANSIBLE_GATHER_PARTITIONS,1,configuration,executionDataContext);
+    gatherConcurrency = resolveIntProperty(AnsibleDescribable.ANSIBLE_GATHER_CONCURRENCY,gatherPartitions,configuration,executionDataContext);
+
+    nodeSoftTtl = resolveIntProperty(AnsibleDescribable.ANSIBLE_NODE_SOFT_TTL,0,configuration,executionDataContext) * 1000L;
+    nodeHardTtl = Math.max(nodeSoftTtl, resolveIntProperty(AnsibleDescribable.ANSIBLE_NODE_HARD_TTL,
+        AnsibleDescribable.DEFAULT_ANSIBLE_NODE_HARD_TTL,configuration,executionDataContext) * 1000L);
+    nodeCacheKey = project + ":" + fingerprint(configuration);
+
+    factCache = null;
+    String factCacheDir = resolveProperty(AnsibleDescribable.ANSIBLE_FACT_CACHE_DIR,null,configuration,executionDataContext);
+    if (factCacheDir != null && factCacheDir.length() > 0) {
+      int factCacheTtl = resolveIntProperty(AnsibleDescribable.ANSIBLE_FACT_CACHE_TTL,
+          AnsibleDescribable.DEFAULT_ANSIBLE_FACT_CACHE_TTL,configuration,executionDataContext);
+      // entries only hold the vars selected by this configuration, keep them apart from other configurations
+      StringBuilder fingerprint = new StringBuilder();
+      fingerprint.append(inventory).append('\n')
+          .append(gatherFacts).append('\n')
+          .append(importInventoryVars).append('\n')
+          .append(ignoreInventoryVars).append('\n')
+          .append(limit).append('\n')
+          .append(extraParameters).append('\n')
+          .append(resolveProperty(AnsibleDescribable.ANSIBLE_ATTRIBUTE_MAPPING,null,configuration,executionDataContext));
+      try {
+        factCache = new AnsibleFactCache(
+            Paths.get(factCacheDir).resolve(sha256(fingerprint.toString())),
+            factCacheTtl * 1000L);
+      } catch (IOException e) {
+        throw new ConfigurationException("Can't create fact cache directory " + factCacheDir + " : " + e.getMessage());
+      }
+    }
   }
 
   public AnsibleRunner buildAnsibleRunner() throws ResourceModelSourceException{
 
     AnsibleRunner runner = AnsibleRunner.playbookPath("gather-hosts.yml");
 
-    if ("true".equals(System.getProperty("ansible.debug"))) {
-      runner.debug();
-    }
-
     if (limit != null && limit.length() > 0) {
       List<String> limitList = new ArrayList<>();
       limitList.add(limit);
       runner.limit(limitList);
     }
 
+    return configureRunner(runner);
+  }
+
+  private AnsibleRunner configureRunner(AnsibleRunner runner) throws ResourceModelSourceException{
+
     StorageTree storageTree = services.getService(KeyStorageTree.class);
 
+    runner = configureInventoryAccess(runner, storageTree);
 
     if ( sshAuthType.equalsIgnoreCase(AuthenticationType.privateKey.name()) ) {
       if (sshPrivateKeyFile != null) {
@@ -260,10 +457,6 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
       }
     }
 
-    if (inventory != null) {
-      runner = runner.setInventory(inventory);
-    }
-
     if (ignoreErrors == true) {
       runner = runner.ignoreErrors(ignoreErrors);
     }
@@ -300,6 +493,26 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
       }
     }
 
+    if (extraParameters != null){
+      runner.extraParams(extraParameters);
+    }
+
+    return runner;
+  }
+
+  /**
+   * Sets what is needed to read the inventory: inventory, config file, vault password and binaries.
+   */
+  private AnsibleRunner configureInventoryAccess(AnsibleRunner runner, StorageTree storageTree) throws ResourceModelSourceException{
+
+    if ("true".equals(System.getProperty("ansible.debug"))) {
+      runner.debug();
+    }
+
+    if (inventory != null) {
+      runner = runner.setInventory(inventory);
+    }
+
     if (configFile != null) {
       runner = runner.configFile(configFile);
     }
@@ -334,22 +547,315 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
       runner.ansibleBinariesDirectory(ansibleBinariesDirectoryPath);
     }
 
-    if (extraParameters != null){
-      runner.extraParams(extraParameters);
+    return runner;
+  }
+
+
+  /**
+   * Returns the last node set loaded for this configuration while it is younger than the soft TTL.
+   * Past the soft TTL a background refresh is started and the last node set is still returned, only
+   * past the hard TTL, or without any node set yet, the caller waits for the refresh. There is at most
+   * one refresh in flight per configuration.
+   */
+  @Override
+  public INodeSet getNodes() throws ResourceModelSourceException {
+    if (nodeSoftTtl <= 0) {
+      return loadNodes();
     }
 
+    final CachedNodes cached;
+    synchronized (NODE_CACHE) {
+      cached = NODE_CACHE.computeIfAbsent(nodeCacheKey, k -> new CachedNodes());
+    }
+    FutureTask<INodeSet> refresh;
+    boolean started = false;
+    synchronized (cached) {
+      long age = System.currentTimeMillis() - cached.loadedAt;
+      if (cached.nodes != null && age < nodeSoftTtl) {
+        return cached.nodes;
+      }
 
+      refresh = cached.refresh;
+      if (refresh == null) {
+        refresh = new FutureTask<>(() -> {
+          try {
+            INodeSet nodes = loadNodes();
+            synchronized (cached) {
+              cached.nodes = nodes;
+              cached.loadedAt = System.currentTimeMillis();
+            }
+            return nodes;
+          } finally {
+            synchronized (cached) {
+              cached.refresh = null;
+            }
+          }
+        });
+        cached.refresh = refresh;
+        started = true;
+      }
 
+      if (cached.nodes != null && age < nodeHardTtl) {
+        if (started) {
+          final FutureTask<INodeSet> backgroundRefresh = refresh;
+          NODE_REFRESH.execute(() -> {
+            backgroundRefresh.run();
+            try {
+              backgroundRefresh.get();
+            } catch (Exception e) {
+              System.out.println("[warn] Background refresh of ansible nodes failed, keeping the previous nodes: "
+                  + e.getMessage());
+            }
+          });
+        }
+        return cached.nodes;
+      }
+    }
 
-    return runner;
+    if (started) {
+      refresh.run();
+    }
+    try {
+      return refresh.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResourceModelSourceException("Interrupted while waiting for the ansible nodes.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ResourceModelSourceException) {
+        throw (ResourceModelSourceException) e.getCause();
+      }
+      throw new ResourceModelSourceException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private static String fingerprint(Properties configuration) {
+    StringBuilder content = new StringBuilder();
+    for (String name : new TreeSet<>(configuration.stringPropertyNames())) {
+      content.append(name).append('=').append(configuration.getProperty(name)).append('\n');
+    }
+    // the configuration may hold passwords, only keep a digest of it
+    return sha256(content.toString());
   }
 
+  private static String sha256(String content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
-  @Override
-  public INodeSet getNodes() throws ResourceModelSourceException {
-    NodeSetImpl nodes = new NodeSetImpl();
+  private INodeSet loadNodes() throws ResourceModelSourceException {
+    final NodeSetImpl nodes = new NodeSetImpl();
     final Gson gson = new Gson();
 
+    if (inventoryList && !gatherFacts && (limit == null || limit.length() == 0)) {
+      listInventory(gson, (root, node) -> nodes.putNode(node));
+      return nodes;
+    }
+
+    if (factCache == null) {
+      gather(null, gson, (root, node) -> nodes.putNode(node));
+      return nodes;
+    }
+
+    long start = System.currentTimeMillis();
+    List<String> hosts = listHosts();
+
+    List<String> expired = new ArrayList<>();
+    int cacheHits = 0;
+    for (String host : hosts) {
+      JsonObject cached = factCache.get(host);
+      if (cached != null) {
+        nodes.putNode(buildNode(cached, gson));
+        cacheHits++;
+      } else {
+        expired.add(host);
+      }
+    }
+
+    if (!expired.isEmpty()) {
+      final Set<String> gathered = new HashSet<>();
+      gather(expired, gson, (root, node) -> {
+        String host = root.get("inventory_hostname").getAsString();
+        try {
+          factCache.put(host, root);
+        } catch (IOException e) {
+          System.out.println("[warn] Could not cache facts of host " + host + ": " + e.getMessage());
+        }
+        gathered.add(host);
+        nodes.putNode(node);
+      });
+
+      // keep the last known vars of hosts which could not be gathered this time
+      for (String host : expired) {
+        if (!gathered.contains(host)) {
+          JsonObject root = factCache.getExpired(host);
+          if (root != null) {
+            nodes.putNode(buildNode(root, gson));
+          }
+        }
+      }
+    }
+
+    try {
+      factCache.retain(hosts);
+    } catch (IOException e) {
+      System.out.println("[warn] Could not prune the fact cache: " + e.getMessage());
+    }
+
+    lastCacheHits = cacheHits;
+    lastGathered = expired.size();
+    lastRefreshDuration = System.currentTimeMillis() - start;
+    System.out.println("[info] Ansible fact cache: " + cacheHits + "/" + hosts.size() + " hosts from cache, "
+        + expired.size() + " gathered, refresh took " + lastRefreshDuration + " ms");
+
+    return nodes;
+  }
+
+  /**
+   * @return the number of hosts taken from the fact cache by the last refresh
+   */
+  public int getLastCacheHits() {
+    return lastCacheHits;
+  }
+
+  /**
+   * @return the number of hosts gathered by the last refresh, because they were new or their cache entry expired
+   */
+  public int getLastGathered() {
+    return lastGathered;
+  }
+
+  /**
+   * @return the duration of the last refresh using the fact cache, in milliseconds
+   */
+  public long getLastRefreshDuration() {
+    return lastRefreshDuration;
+  }
+
+  public AnsibleFactCache getFactCache() {
+    return factCache;
+  }
+
+  /**
+   * Lists the inventory hosts matching the limit, without connecting to them.
+   */
+  private List<String> listHosts() throws ResourceModelSourceException {
+    final List<String> hosts = new ArrayList<>();
+
+    AnsibleRunner runner = AnsibleRunner.adHoc("ping", null);
+    if (limit != null && limit.length() > 0) {
+      runner.limit(limit);
+    }
+    configureRunner(runner);
+    runner.extraParams(extraParameters != null ? extraParameters + " --list-hosts" : "--list-hosts");
+
+    // ansible prints "  hosts (N):" followed by one indented line per host
+    runner.listener(new Listener() {
+      private boolean listing = false;
+
+      @Override
+      public void output(String line) {
+        if (line.matches("^\\s*hosts \\(\\d+\\):\\s*$")) {
+          listing = true;
+        } else if (listing && line.startsWith("    ") && line.trim().length() > 0) {
+          hosts.add(line.trim());
+        }
+      }
+    });
+
+    try {
+      runner.run();
+    } catch (Exception e) {
+      throw new ResourceModelSourceException(e.getMessage(), e);
+    }
+    return hosts;
+  }
+
+  /**
+   * Gathers the hosts with a single ansible run, or split in partitions when gatherPartitions is above 1.
+   *
+   * @param hosts     the hosts to gather, or null to gather all the hosts matching the limit
+   * @param consumer  receives the vars and the node of each host
+   */
+  private void gather(List<String> hosts, Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer)
+      throws ResourceModelSourceException {
+    if (gatherPartitions <= 1) {
+      gatherHostVars(hosts, gson, consumer);
+      return;
+    }
+    gatherPartitioned(hosts != null ? hosts : listHosts(), gson, consumer);
+  }
+
+  /**
+   * Splits the hosts in gatherPartitions partitions, each gathered by its own ansible run with its own
+   * limit file, at most gatherConcurrency at a time. The hosts of a partition are merged as soon as it
+   * completes, a failed partition is reported and the others are kept.
+   */
+  private void gatherPartitioned(List<String> hosts, final Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer)
+      throws ResourceModelSourceException {
+    final int partitionCount = Math.min(gatherPartitions, hosts.size());
+    if (partitionCount == 0) {
+      return;
+    }
+    int partitionSize = (hosts.size() + partitionCount - 1) / partitionCount;
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(gatherConcurrency, partitionCount)));
+    CompletionService<List<ParsedHost>> completion = new ExecutorCompletionService<>(executor);
+    Map<Future<List<ParsedHost>>, String> partitionNames = new HashMap<>();
+    try {
+      for (int start = 0; start < hosts.size(); start += partitionSize) {
+        final List<String> partition = new ArrayList<>(hosts.subList(start, Math.min(start + partitionSize, hosts.size())));
+        Future<List<ParsedHost>> future = completion.submit(() -> {
+          List<ParsedHost> parsed = new ArrayList<>();
+          gatherHostVars(partition, gson, (root, node) -> parsed.add(new ParsedHost(root, node)));
+          return parsed;
+        });
+        partitionNames.put(future, "partition " + (partitionNames.size() + 1) + "/" + partitionCount
+            + " (" + partition.size() + " hosts, starting with " + partition.get(0) + ")");
+      }
+
+      int failed = 0;
+      Exception lastFailure = null;
+      for (int i = 0; i < partitionNames.size(); i++) {
+        Future<List<ParsedHost>> future = completion.take();
+        try {
+          for (ParsedHost parsed : future.get()) {
+            consumer.accept(parsed.root, parsed.node);
+          }
+        } catch (ExecutionException e) {
+          failed++;
+          lastFailure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          System.out.println("[warn] Gathering " + partitionNames.get(future) + " failed: " + lastFailure.getMessage());
+        }
+      }
+      if (failed == partitionNames.size()) {
+        throw new ResourceModelSourceException("Gathering failed for all " + failed + " partitions: "
+            + lastFailure.getMessage(), lastFailure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResourceModelSourceException("Interrupted while gathering facts.", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs gather-hosts.yml, which writes the vars of every host as one JSON document per line
+   * to a single data file, and hands the hosts to the consumer one at a time while reading it.
+   *
+   * @param hosts     the hosts to gather, or null to gather all the hosts matching the limit
+   * @param consumer  receives the vars and the node of each host, in the order of the data file
+   */
+  private void gatherHostVars(List<String> hosts, Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer)
+      throws ResourceModelSourceException {
     Path tempDirectory;
     try {
       tempDirectory = Files.createTempDirectory("ansible-hosts");
@@ -364,7 +870,12 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
         throw new ResourceModelSourceException("Error copying files.");
     }
 
-    AnsibleRunner runner = buildAnsibleRunner();
+    AnsibleRunner runner;
+    if (hosts == null) {
+      runner = buildAnsibleRunner();
+    } else {
+      runner = configureRunner(AnsibleRunner.playbookPath("gather-hosts.yml")).limit(hosts);
+    }
 
     runner.tempDirectory(tempDirectory).retainTempDirectory();
 
@@ -387,244 +898,378 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
     }
 
     try {
-      if (new File(tempDirectory.toFile(), "data").exists()) {
-        DirectoryStream<Path> directoryStream = Files.newDirectoryStream(tempDirectory.resolve("data"));
-        for (Path factFile : directoryStream) {
-          NodeEntryImpl node = new NodeEntryImpl();
+      Path dataFile = tempDirectory.resolve("data.jsonl");
+      if (Files.exists(dataFile)) {
+        readHosts(dataFile, gson, consumer);
+      }
+    } catch (IOException | RuntimeException e) {
+      throw new ResourceModelSourceException("Error reading facts.", e);
+    }
 
-          BufferedReader bufferedReader = Files.newBufferedReader(factFile, Charset.forName("utf-8"));
-          JsonElement json = new JsonParser().parse(bufferedReader);
-          bufferedReader.close();
-          JsonObject root = json.getAsJsonObject();
+    deleteTempDirectory(tempDirectory);
+  }
 
-          String hostname = root.get("inventory_hostname").getAsString();
-          try {
-            if (root.has("ansible_host")) {
-              hostname = root.get("ansible_host").getAsString();
-            } else if (root.has("ansible_ssh_host")) { // deprecated variable
-              hostname = root.get("ansible_ssh_host").getAsString();
-            }
-          }catch(Exception ex){
-            System.out.println("[warn] Problem getting the ansible_host attribute from node " + hostname);
-          }
-          node.setHostname(hostname);
-
-          String nodename = root.get("inventory_hostname").getAsString();
-          node.setNodename(nodename);
-
-          String username = sshUser; // Use sshUser as default username
-          if (root.has("ansible_user")) {
-            username = root.get("ansible_user").getAsString();
-          } else if (root.has("ansible_ssh_user")) { // deprecated variable
-            username = root.get("ansible_ssh_user").getAsString();
-          } else if (root.has("ansible_user_id")) { // fact
-            username = root.get("ansible_user_id").getAsString();
-          }
-          node.setUsername(username);
+  /**
+   * Hands the vars and the node of each host document of the data file to the consumer, in the
+   * order of the file, parsing them in parallel when ingestThreads is above 1.
+   */
+  private void readHosts(Path dataFile, Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer) throws IOException {
+    if (ingestThreads > 1) {
+      readHostsInParallel(dataFile, gson, consumer);
+      return;
+    }
+    try (JsonReader reader = new JsonReader(Files.newBufferedReader(dataFile, Charset.forName("utf-8")))) {
+      reader.setLenient(true);
+      while (reader.peek() != JsonToken.END_DOCUMENT) {
+        JsonObject root = readHostVars(reader);
+        consumer.accept(root, buildNode(root, gson));
+      }
+    }
+  }
 
-          // Add groups as tags, except ignored tag prefix
-          HashSet<String> tags = new HashSet<>();
-          for (JsonElement ele : root.getAsJsonArray("group_names")) {
-            if (ignoreTagPrefix != null && ignoreTagPrefix.length() > 0 && ele.getAsString().startsWith(ignoreTagPrefix)) continue;
-            tags.add(ele.getAsString());
-          }
-          // Add extraTag to node
-          if (extraTag != null && extraTag.length() > 0) {
-            tags.add(extraTag);
-          }
-          node.setTags(tags);
+  private static void deleteTempDirectory(Path tempDirectory) throws ResourceModelSourceException {
+    try {
+      Files.walkFileTree(tempDirectory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Files.delete(file);
+          return FileVisitResult.CONTINUE;
+        }
 
-          if (root.has("ansible_lsb") && root.getAsJsonObject("ansible_lsb").has("description")) {
-            node.setDescription(root.getAsJsonObject("ansible_lsb").get("description").getAsString());
-          } else {
-            StringBuilder sb = new StringBuilder();
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+          Files.delete(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new ResourceModelSourceException("Error deleting temporary directory.", e);
+    }
+  }
 
-            if (root.has("ansible_distribution") && !root.get("ansible_distribution").isJsonNull()) {
-              sb.append(root.get("ansible_distribution").getAsString()).append(" ");
-            }
-            if (root.has("ansible_distribution_version")) {
-              sb.append(root.get("ansible_distribution_version").getAsString()).append(" ");
-            }
+  /**
+   * Without facts there is nothing to gather from the hosts: builds the nodes straight from
+   * `ansible-inventory --list`. The inventory JSON is read twice, first for the group
+   * membership, then streaming the host vars of _meta one host at a time.
+   */
+  private void listInventory(Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer) throws ResourceModelSourceException {
+    Path tempDirectory;
+    try {
+      tempDirectory = Files.createTempDirectory("ansible-hosts");
+    } catch (IOException e) {
+        throw new ResourceModelSourceException("Error creating temporary directory.", e);
+    }
+    Path inventoryFile = tempDirectory.resolve("inventory.json");
 
-            if (sb.length() > 0) {
-              node.setDescription(sb.toString().trim());
-            }
-          }
+    AnsibleRunner runner = AnsibleRunner.inventoryList(inventoryFile.toFile().getAbsolutePath());
+    runner = configureInventoryAccess(runner, services.getService(KeyStorageTree.class));
+    runner.tempDirectory(tempDirectory).retainTempDirectory();
 
-          // ansible_system     = Linux   = osFamily in Rundeck
-          // ansible_os_family  = Debian  = osName in Rundeck
+    try {
+        runner.run();
+    } catch (Exception e) {
+        throw new ResourceModelSourceException(e.getMessage(),e);
+    }
 
-          if (root.has("ansible_os_family")) {
-            node.setOsFamily(root.get("ansible_os_family").getAsString());
+    Map<String, List<String>> groupHosts = new LinkedHashMap<>();
+    Map<String, List<String>> groupParents = new HashMap<>();
+    try {
+      try (JsonReader reader = new JsonReader(Files.newBufferedReader(inventoryFile, Charset.forName("utf-8")))) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String group = reader.nextName();
+          if ("_meta".equals(group) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            continue;
           }
-
-          if (root.has("ansible_os_name") && !root.get("ansible_os_name").isJsonNull()) {
-            node.setOsName(root.get("ansible_os_name").getAsString());
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String field = reader.nextName();
+            if ("hosts".equals(field)) {
+              groupHosts.put(group, readStringArray(reader));
+            } else if ("children".equals(field)) {
+              for (String child : readStringArray(reader)) {
+                groupParents.computeIfAbsent(child, k -> new ArrayList<>()).add(group);
+              }
+            } else {
+              reader.skipValue();
+            }
           }
+          reader.endObject();
+        }
+      }
 
-          if (root.has("ansible_architecture") && !root.get("ansible_architecture").isJsonNull()) {
-            node.setOsArch(root.get("ansible_architecture").getAsString());
-          }
+      // group_names holds every group of the host, inherited ones included, except "all"
+      Map<String, Set<String>> hostGroups = new LinkedHashMap<>();
+      for (Map.Entry<String, List<String>> group : groupHosts.entrySet()) {
+        Set<String> ancestors = new TreeSet<>();
+        addGroupAndParents(group.getKey(), groupParents, ancestors);
+        ancestors.remove("all");
+        for (String host : group.getValue()) {
+          hostGroups.computeIfAbsent(host, k -> new TreeSet<>()).addAll(ancestors);
+        }
+      }
 
-          if (root.has("ansible_kernel")) {
-            node.setOsVersion(root.get("ansible_kernel").getAsString());
+      try (JsonReader reader = new JsonReader(Files.newBufferedReader(inventoryFile, Charset.forName("utf-8")))) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (!"_meta".equals(reader.nextName())) {
+            reader.skipValue();
+            continue;
           }
+          reader.beginObject();
+          while (reader.hasNext()) {
+            if (!"hostvars".equals(reader.nextName())) {
+              reader.skipValue();
+              continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+              String host = reader.nextName();
+              JsonObject root = readHostVars(reader);
+              addInventoryHostVars(root, host, hostGroups.remove(host));
+              consumer.accept(root, buildNode(root, gson));
+            }
+            reader.endObject();
+          }
+          reader.endObject();
+        }
+      }
 
-          // Add Ansible interesting vars as node attributes
-          // JSON-Path -> Attribute-Name
-          Map<String, String> interestingItems = new HashMap<>();
-
-          interestingItems.put("ansible_form_factor", "form_factor");
+      // hosts without any var are not listed in _meta
+      for (Map.Entry<String, Set<String>> host : hostGroups.entrySet()) {
+        JsonObject root = new JsonObject();
+        addInventoryHostVars(root, host.getKey(), host.getValue());
+        consumer.accept(root, buildNode(root, gson));
+      }
+    } catch (IOException | RuntimeException e) {
+      throw new ResourceModelSourceException("Error reading inventory.", e);
+    }
 
-          interestingItems.put("ansible_system_vendor", "system_vendor");
+    deleteTempDirectory(tempDirectory);
+  }
 
-          interestingItems.put("ansible_product_name", "product_name");
-          interestingItems.put("ansible_product_version", "product_version");
-          interestingItems.put("ansible_product_serial", "product_serial");
+  private static List<String> readStringArray(JsonReader reader) throws IOException {
+    List<String> values = new ArrayList<>();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      values.add(reader.nextString());
+    }
+    reader.endArray();
+    return values;
+  }
 
-          interestingItems.put("ansible_bios_version", "bios_version");
-          interestingItems.put("ansible_bios_date", "bios_date");
+  private static void addGroupAndParents(String group, Map<String, List<String>> groupParents, Set<String> groups) {
+    if (!groups.add(group)) {
+      return;
+    }
+    List<String> parents = groupParents.get(group);
+    if (parents != null) {
+      for (String parent : parents) {
+        addGroupAndParents(parent, groupParents, groups);
+      }
+    }
+  }
 
-          interestingItems.put("ansible_machine_id", "machine_id");
+  /**
+   * Adds the magic vars set by ansible-playbook but not listed by ansible-inventory.
+   */
+  private static void addInventoryHostVars(JsonObject root, String host, Set<String> groups) {
+    root.addProperty("inventory_hostname", host);
+    JsonArray groupNames = new JsonArray();
+    if (groups != null) {
+      for (String group : groups) {
+        groupNames.add(group);
+      }
+    }
+    root.add("group_names", groupNames);
+  }
 
-          interestingItems.put("ansible_virtualization_type", "virtualization_type");
-          interestingItems.put("ansible_virtualization_role", "virtualization_role");
+  /**
+   * Parses the host documents of the data file, one per line, on a pool of ingestThreads threads.
+   * At most a few documents per thread are in flight, and they are handed to the consumer on the
+   * calling thread in the order of the file, so the result does not depend on the scheduling.
+   */
+  private void readHostsInParallel(Path dataFile, final Gson gson, BiConsumer<JsonObject, NodeEntryImpl> consumer)
+      throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(ingestThreads);
+    Deque<ForkJoinTask<ParsedHost>> inFlight = new ArrayDeque<>();
+    int maxInFlight = ingestThreads * 4;
+
+    try (BufferedReader reader = Files.newBufferedReader(dataFile, Charset.forName("utf-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        final String document = line;
+        inFlight.add(pool.submit(() -> {
+          JsonObject root = readHostVars(new JsonReader(new StringReader(document)));
+          return new ParsedHost(root, buildNode(root, gson));
+        }));
+        if (inFlight.size() >= maxInFlight) {
+          ParsedHost parsed = take(inFlight.poll());
+          consumer.accept(parsed.root, parsed.node);
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        ParsedHost parsed = take(inFlight.poll());
+        consumer.accept(parsed.root, parsed.node);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
 
-          interestingItems.put("ansible_selinux", "selinux");
-          interestingItems.put("ansible_fips", "fips");
+  private static ParsedHost take(ForkJoinTask<ParsedHost> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing facts", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
 
-          interestingItems.put("ansible_service_mgr", "service_mgr");
-          interestingItems.put("ansible_pkg_mgr", "pkg_mgr");
+  private static class ParsedHost {
+    final JsonObject root;
+    final NodeEntryImpl node;
 
-          interestingItems.put("ansible_distribution", "distribution");
-          interestingItems.put("ansible_distribution_version", "distribution_version");
-          interestingItems.put("ansible_distribution_major_version", "distribution_major_version");
-          interestingItems.put("ansible_distribution_release", "distribution_release");
-          interestingItems.put("ansible_lsb.codename", "lsb_codename");
+    ParsedHost(JsonObject root, NodeEntryImpl node) {
+      this.root = root;
+      this.node = node;
+    }
+  }
 
-          interestingItems.put("ansible_domain", "domain");
+  /**
+   * Reads the next host document, building values only for the vars used by {@link #buildNode},
+   * other facts such as ansible_mounts or ansible_interfaces are skipped at token level.
+   */
+  private JsonObject readHostVars(JsonReader reader) throws IOException {
+    JsonObject root = new JsonObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (NODE_VARS.contains(name)
+          || attributeMapping.getTopLevelKeys().contains(name)
+          || (importInventoryVars && !specialVars.matches(name))) {
+        root.add(name, JsonParser.parseReader(reader));
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return root;
+  }
 
-          interestingItems.put("ansible_date_time.tz", "tz");
-          interestingItems.put("ansible_date_time.tz_offset", "tz_offset");
+  private NodeEntryImpl buildNode(JsonObject root, Gson gson) {
+    NodeEntryImpl node = new NodeEntryImpl();
 
-          interestingItems.put("ansible_processor_count", "processor_count");
-          interestingItems.put("ansible_processor_cores", "processor_cores");
-          interestingItems.put("ansible_processor_vcpus", "processor_vcpus");
-          interestingItems.put("ansible_processor_threads_per_core", "processor_threads_per_core");
+    String hostname = root.get("inventory_hostname").getAsString();
+    try {
+      if (root.has("ansible_host")) {
+        hostname = root.get("ansible_host").getAsString();
+      } else if (root.has("ansible_ssh_host")) { // deprecated variable
+        hostname = root.get("ansible_ssh_host").getAsString();
+      }
+    }catch(Exception ex){
+      System.out.println("[warn] Problem getting the ansible_host attribute from node " + hostname);
+    }
+    node.setHostname(hostname);
+
+    String nodename = root.get("inventory_hostname").getAsString();
+    node.setNodename(nodename);
+
+    String username = sshUser; // Use sshUser as default username
+    if (root.has("ansible_user")) {
+      username = root.get("ansible_user").getAsString();
+    } else if (root.has("ansible_ssh_user")) { // deprecated variable
+      username = root.get("ansible_ssh_user").getAsString();
+    } else if (root.has("ansible_user_id")) { // fact
+      username = root.get("ansible_user_id").getAsString();
+    }
+    node.setUsername(username);
 
-          interestingItems.put("ansible_userspace_architecture", "userspace_architecture");
-          interestingItems.put("ansible_userspace_bits", "userspace_bits");
+    // Add groups as tags, except ignored tag prefix
+    HashSet<String> tags = new HashSet<>();
+    for (JsonElement ele : root.getAsJsonArray("group_names")) {
+      if (ignoreTagPrefix != null && ignoreTagPrefix.length() > 0 && ele.getAsString().startsWith(ignoreTagPrefix)) continue;
+      tags.add(ele.getAsString());
+    }
+    // Add extraTag to node
+    if (extraTag != null && extraTag.length() > 0) {
+      tags.add(extraTag);
+    }
+    node.setTags(tags);
 
-          interestingItems.put("ansible_memtotal_mb", "memtotal_mb");
-          interestingItems.put("ansible_swaptotal_mb", "swaptotal_mb");
-          interestingItems.put("ansible_processor.0", "processor0");
-          interestingItems.put("ansible_processor.1", "processor1");
+    if (root.has("ansible_lsb") && root.getAsJsonObject("ansible_lsb").has("description")) {
+      node.setDescription(root.getAsJsonObject("ansible_lsb").get("description").getAsString());
+    } else {
+      StringBuilder sb = new StringBuilder();
 
-          for (Map.Entry<String, String> item : interestingItems.entrySet()) {
-            String[] itemParts = item.getKey().split("\\.");
+      if (root.has("ansible_distribution") && !root.get("ansible_distribution").isJsonNull()) {
+        sb.append(root.get("ansible_distribution").getAsString()).append(" ");
+      }
+      if (root.has("ansible_distribution_version")) {
+        sb.append(root.get("ansible_distribution_version").getAsString()).append(" ");
+      }
 
-            if (itemParts.length > 1) {
-              JsonElement ele = root;
-              for (String itemPart : itemParts) {
-                if (ele.isJsonArray() && itemPart.matches("^\\d+$") && ele.getAsJsonArray().size() > Integer.parseInt(itemPart)) {
-                  ele = ele.getAsJsonArray().get(Integer.parseInt(itemPart));
-                } else if (ele.isJsonObject() && ele.getAsJsonObject().has(itemPart)) {
-                  ele = ele.getAsJsonObject().get(itemPart);
-                } else {
-                  ele = null;
-                  break;
-                }
-              }
+      if (sb.length() > 0) {
+        node.setDescription(sb.toString().trim());
+      }
+    }
 
-              if (ele != null && ele.isJsonPrimitive() && ele.getAsString().length() > 0) {
-                node.setAttribute(item.getValue(), ele.getAsString());
-              }
-            } else {
-              if (root.has(item.getKey())
-                && root.get(item.getKey()).isJsonPrimitive()
-                && root.get(item.getKey()).getAsString().length() > 0) {
-                node.setAttribute(item.getValue(), root.get(item.getKey()).getAsString());
-              }
-            }
-          }
+    // ansible_system     = Linux   = osFamily in Rundeck
+    // ansible_os_family  = Debian  = osName in Rundeck
 
+    if (root.has("ansible_os_family")) {
+      node.setOsFamily(root.get("ansible_os_family").getAsString());
+    }
 
-          if (importInventoryVars == true) {
-            // Add ALL vars as node attributes, except Ansible Special variables, as of Ansible 2.9
-            // https://docs.ansible.com/ansible/latest/reference_appendices/special_variables.html
-            List<String> specialVarsList = new ArrayList<>();
-            specialVarsList.add("ansible_");  // most ansible vars prefix
-            specialVarsList.add("discovered_interpreter_python");
-            specialVarsList.add("facts");   // rundeck used to gather host_vars
-            specialVarsList.add("gather_subset");
-            specialVarsList.add("group_names");
-            specialVarsList.add("groups");
-            specialVarsList.add("hostvars");
-            specialVarsList.add("inventory_dir");
-            specialVarsList.add("inventory_file");
-            specialVarsList.add("inventory_hostname");
-            specialVarsList.add("inventory_hostname_short");
-            specialVarsList.add("module_setup");
-            specialVarsList.add("omit");
-            specialVarsList.add("play_hosts");
-            specialVarsList.add("playbook_dir");
-            specialVarsList.add("role_name");
-            specialVarsList.add("role_names");
-            specialVarsList.add("role_path");
-            specialVarsList.add("tmpdir");  // rundeck used to gather host_vars
-
-            if (ignoreInventoryVars != null && ignoreInventoryVars.length() > 0) {
-              String[] ignoreInventoryVarsStrings = ignoreInventoryVars.split(",");
-              for (String ignoreInventoryVarsString: ignoreInventoryVarsStrings) {
-                specialVarsList.add(ignoreInventoryVarsString.trim());
-              }
-            }
+    if (root.has("ansible_os_name") && !root.get("ansible_os_name").isJsonNull()) {
+      node.setOsName(root.get("ansible_os_name").getAsString());
+    }
 
-            // for (String hostVar : root.keySet()) {
-            for (Entry<String, JsonElement> hostVar : root.entrySet()) {
+    if (root.has("ansible_architecture") && !root.get("ansible_architecture").isJsonNull()) {
+      node.setOsArch(root.get("ansible_architecture").getAsString());
+    }
 
-              // skip Ansible special vars
-              if (skipVar(hostVar.getKey(), specialVarsList)) {
-                continue;
-              }
+    if (root.has("ansible_kernel")) {
+      node.setOsVersion(root.get("ansible_kernel").getAsString());
+    }
 
-              if (hostVar.getValue() instanceof JsonPrimitive && ((JsonPrimitive) hostVar.getValue()).isString()) {
-                // Keep attribute as String, don't serialize as Json
-                node.setAttribute(hostVar.getKey(), hostVar.getValue().getAsString());
-              } else {
-                // Serialize attribute as Json (JsonArray or JsonObject)
-                node.setAttribute(hostVar.getKey(), gson.toJson(hostVar.getValue()));
-              }
-            }
-          }
+    // Add Ansible interesting vars as node attributes
+    attributeMapping.apply(root, node);
 
-          nodes.putNode(node);
-        }
-        directoryStream.close();
-      }
-    } catch (IOException e) {
-      throw new ResourceModelSourceException("Error reading facts.", e);
-    }
+    if (importInventoryVars == true) {
+      // Add ALL vars as node attributes, except Ansible Special variables, as of Ansible 2.9
+      // https://docs.ansible.com/ansible/latest/reference_appendices/special_variables.html
+      // for (String hostVar : root.keySet()) {
+      for (Entry<String, JsonElement> hostVar : root.entrySet()) {
 
-    try {
-      Files.walkFileTree(tempDirectory, new SimpleFileVisitor<Path>() {
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          Files.delete(file);
-          return FileVisitResult.CONTINUE;
+        // skip Ansible special vars
+        if (specialVars.matches(hostVar.getKey())) {
+          continue;
         }
 
-        @Override
-        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-          Files.delete(dir);
-          return FileVisitResult.CONTINUE;
+        if (hostVar.getValue() instanceof JsonPrimitive && ((JsonPrimitive) hostVar.getValue()).isString()) {
+          // Keep attribute as String, don't serialize as Json
+          node.setAttribute(hostVar.getKey(), hostVar.getValue().getAsString());
+        } else {
+          // Serialize attribute as Json (JsonArray or JsonObject)
+          node.setAttribute(hostVar.getKey(), gson.toJson(hostVar.getValue()));
         }
-      });
-    } catch (IOException e) {
-      throw new ResourceModelSourceException("Error deleting temporary directory.", e);
+      }
     }
 
-    return nodes;
+    return node;
   }
 
 
@@ -634,12 +1279,9 @@ public class AnsibleResourceModelSource implements ResourceModelSource, ProxySec
   }
 
   private byte[] getStorageContent(String storagePath, StorageTree storageTree) throws ConfigurationException {
-    org.rundeck.storage.api.Path path = PathUtil.asPath(storagePath);
+    String scope = (nodeCacheKey != null ? nodeCacheKey : project) + ":resource-model";
     try {
-      ResourceMeta contents = storageTree.getResource(path).getContents();
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-      contents.writeContent(byteArrayOutputStream);
-      return byteArrayOutputStream.toByteArray();
+      return AnsibleSecretCache.forScope(scope, AnsibleSecretCache.DEFAULT_TTL_MILLIS).get(storageTree, storagePath);
     } catch (StorageException e) {
       throw new ConfigurationException("Failed to read the ssh private key for " +
               "storage path: " + storagePath + ": " + e.getMessage());
@@ -35,6 +35,14 @@ public class AnsibleResourceModelSourceFactory implements ResourceModelSourceFac
         builder.property(INVENTORY_PROP);
         builder.property(CONFIG_FILE_PATH);
         builder.property(GATHER_FACTS_PROP);
+        builder.property(FACT_CACHE_DIR_PROP);
+        builder.property(FACT_CACHE_TTL_PROP);
+        builder.property(PARALLEL_INGEST_THREADS_PROP);
+        builder.property(GATHER_PARTITIONS_PROP);
+        builder.property(GATHER_CONCURRENCY_PROP);
+        builder.property(INVENTORY_LIST_PROP);
+        builder.property(NODE_SOFT_TTL_PROP);
+        builder.property(NODE_HARD_TTL_PROP);
         builder.property(IGNORE_ERRORS_PROP);
         builder.property(LIMIT_PROP);
         builder.property(DISABLE_LIMIT_PROP);
@@ -42,6 +50,7 @@ public class AnsibleResourceModelSourceFactory implements ResourceModelSourceFac
         builder.property(EXTRA_TAG_PROP);
         builder.property(IMPORT_INVENTORY_VARS_PROP);
         builder.property(IGNORE_INVENTORY_VARS_PROP);
+        builder.property(ATTRIBUTE_MAPPING_PROP);
         builder.property(EXTRA_ATTRS_PROP);
         builder.property(SSH_AUTH_TYPE_PROP);
         builder.property(SSH_USER_PROP);
@@ -1,14 +1,37 @@
 package com.rundeck.plugins.ansible.util;
 
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.execution.ExecutionContext;
 import com.dtolabs.rundeck.core.execution.proxy.DefaultSecretBundle;
 import com.dtolabs.rundeck.core.execution.proxy.SecretBundle;
+import com.dtolabs.rundeck.core.execution.workflow.SharedOutputContext;
+import com.dtolabs.rundeck.core.execution.workflow.steps.FailureReason;
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepResult;
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepResultImpl;
+import com.rundeck.plugins.ansible.ansible.AnsibleNodeResults;
 import com.rundeck.plugins.ansible.ansible.AnsibleRunnerBuilder;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class AnsibleUtil {
 
+    /**
+     * @return project:execid of the execution, or null if the context does not tell the execution id
+     */
+    public static String getExecutionScope(ExecutionContext context) {
+        if (context == null || context.getDataContext() == null || context.getDataContext().get("job") == null) {
+            return null;
+        }
+        String execId = context.getDataContext().get("job").get("execid");
+        if (execId == null || execId.isEmpty()) {
+            return null;
+        }
+        return context.getFrameworkProject() + ":" + execId;
+    }
+
     public static SecretBundle createBundle(AnsibleRunnerBuilder builder){
 
         DefaultSecretBundle secretBundle = new DefaultSecretBundle();
@@ -64,4 +87,37 @@ public class AnsibleUtil {
         return secretPaths;
 
     }
+
+    /**
+     * Publishes the failed and unreachable nodes of a playbook step as the ansible.failed_nodes and
+     * ansible.unreachable_nodes output data, and adds them to the failure data of the step so
+     * Rundeck only fails (and retries) those nodes.
+     */
+    public static void addNodeResults(ExecutionContext context, AnsibleNodeResults results, Throwable cause,
+                                      FailureReason reason, Map<String, Object> failureData) {
+        List<String> failed = results.getHosts(AnsibleNodeResults.Status.FAILED);
+        List<String> unreachable = results.getHosts(AnsibleNodeResults.Status.UNREACHABLE);
+
+        SharedOutputContext outputContext = context.getOutputContext();
+        if (outputContext != null) {
+            outputContext.addOutput("ansible", "failed_nodes", String.join(",", failed));
+            outputContext.addOutput("ansible", "unreachable_nodes", String.join(",", unreachable));
+        }
+
+        if (failureData == null) {
+            return;
+        }
+        failureData.put("failed-nodes", failed);
+        failureData.put("unreachable-nodes", unreachable);
+
+        // same key and shape as the node dispatcher uses for the failures of each node
+        Map<String, NodeStepResult> failures = new HashMap<>();
+        for (String host : results.getFailedHosts()) {
+            INodeEntry node = context.getNodes().getNode(host);
+            if (node != null) {
+                failures.put(host, new NodeStepResultImpl(cause, reason, results.getMessage(host), node));
+            }
+        }
+        failureData.put("failures", failures);
+    }
 }
@@ -0,0 +1,18 @@
+package com.rundeck.plugins.ansible.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Listener receiving the output in batches of lines, so verbose runs do not pay the cost of the
+ * downstream log system once per line. Use {@link LineBatcher} to feed it line by line.
+ */
+public interface BatchListener extends Listener {
+
+      void output(List<String> lines);
+
+      @Override
+      default void output(String line) {
+            output(Collections.singletonList(line));
+      }
+}
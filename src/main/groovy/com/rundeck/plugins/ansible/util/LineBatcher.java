@@ -0,0 +1,86 @@
+package com.rundeck.plugins.ansible.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects output lines and hands them to a {@link BatchListener} once the batch reaches its size,
+ * or once the oldest buffered line waited longer than the flush interval. Plain listeners are
+ * adapted and still receive one line at a time.
+ */
+public class LineBatcher implements Listener {
+
+  public static final int DEFAULT_BATCH_SIZE = 512;
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+
+  private final BatchListener target;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private List<String> batch;
+  private long batchStarted;
+
+  public LineBatcher(Listener listener) {
+    this(listener, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+  }
+
+  public LineBatcher(Listener listener, int batchSize, long flushIntervalMillis) {
+    this.target = adapt(listener);
+    this.batchSize = Math.max(1, batchSize);
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.batch = new ArrayList<>(this.batchSize);
+  }
+
+  /**
+   * @return the listener itself if it accepts batches, otherwise a batch listener calling it once per line
+   */
+  public static BatchListener adapt(final Listener listener) {
+    if (listener instanceof BatchListener) {
+      return (BatchListener) listener;
+    }
+    return new BatchListener() {
+      @Override
+      public void output(List<String> lines) {
+        for (String line : lines) {
+          listener.output(line);
+        }
+      }
+
+      @Override
+      public void output(String line) {
+        listener.output(line);
+      }
+    };
+  }
+
+  @Override
+  public void output(String line) {
+    if (batch.isEmpty()) {
+      batchStarted = System.currentTimeMillis();
+    }
+    batch.add(line);
+    if (batch.size() >= batchSize) {
+      flush();
+    } else {
+      flushIfDue();
+    }
+  }
+
+  /**
+   * Flushes the buffered lines if the oldest one waited longer than the flush interval, called
+   * by the reader of the output while it waits for more.
+   */
+  public void flushIfDue() {
+    if (!batch.isEmpty() && System.currentTimeMillis() - batchStarted >= flushIntervalMillis) {
+      flush();
+    }
+  }
+
+  public void flush() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<String> lines = batch;
+    batch = new ArrayList<>(batchSize);
+    target.output(lines);
+  }
+}
@@ -1,11 +1,23 @@
 package com.rundeck.plugins.ansible.util;
 
 import java.io.*;
+import java.util.List;
 
 public abstract class ListenerFactory {
 
-      public static Listener getListener(final PrintStream stream) {            
-        return new Listener() {
+      public static Listener getListener(final PrintStream stream) {
+        return new BatchListener() {
+                @Override
+                public void output(List<String> lines) {
+                    // a single write per batch instead of a synchronized println per line
+                    StringBuilder text = new StringBuilder();
+                    for (String line : lines) {
+                        text.append(line).append(System.lineSeparator());
+                    }
+                    stream.print(text);
+                    stream.flush();
+                }
+
                 @Override
                 public void output(String line) {
                     stream.println(line);
@@ -0,0 +1,211 @@
+package com.rundeck.plugins.ansible.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the output of every running ansible process from a single shared thread, instead of two
+ * blocked threads per process. The pump only reads what a stream has available, splits it in lines
+ * and queues them on the channel of the run, whose own thread hands them to its listener.
+ * <p>
+ * A channel holds a bounded number of lines. While it is full the pump stops reading its streams,
+ * so a slow listener makes the process block on its output instead of growing the buffers.
+ * <p>
+ * The thread stops once no channel is left, the next registration starts a new one.
+ */
+public class OutputPump {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static final int CHUNK_SIZE = 8192;
+  private static final long IDLE_SLEEP_MILLIS = 5;
+
+  private static final OutputPump INSTANCE = new OutputPump();
+
+  public static OutputPump getInstance() {
+    return INSTANCE;
+  }
+
+  private final List<Channel> channels = new CopyOnWriteArrayList<>();
+  private Thread thread;
+
+  /**
+   * Output lines of one run, read from one or more streams, e.g. the stdout and stderr of a process.
+   */
+  public class Channel {
+    private final BlockingQueue<String> lines;
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final List<InputStream> streams = new ArrayList<>();
+    private final List<ByteArrayOutputStream> partialLines = new ArrayList<>();
+    private boolean closed = false;
+
+    Channel(int capacity, InputStream... streams) {
+      this.lines = new ArrayBlockingQueue<>(capacity);
+      for (InputStream stream : streams) {
+        this.streams.add(stream);
+        this.partialLines.add(new ByteArrayOutputStream());
+      }
+    }
+
+    /**
+     * @return the next line, or null if none arrived within the timeout
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+      return lines.poll(timeout, unit);
+    }
+
+    /**
+     * Stops pumping the streams, once the process exited, and returns the lines not polled yet,
+     * including what the process wrote last.
+     */
+    public synchronized List<String> close() throws IOException {
+      channels.remove(this);
+      closed = true;
+
+      List<String> remaining = new ArrayList<>();
+      lines.drainTo(remaining);
+      remaining.addAll(pending);
+      pending.clear();
+
+      for (int i = 0; i < streams.size(); i++) {
+        while (read(i, remaining)) {
+          // the process is gone, take everything left in the pipe
+        }
+        ByteArrayOutputStream partialLine = partialLines.get(i);
+        if (partialLine.size() > 0) {
+          remaining.add(decode(partialLine));
+        }
+      }
+      return remaining;
+    }
+
+    /**
+     * Stops pumping the streams, discarding what was not read, e.g. when the run was interrupted.
+     */
+    public synchronized void cancel() {
+      channels.remove(this);
+      closed = true;
+    }
+
+    /**
+     * @return true if anything was read or queued
+     */
+    synchronized boolean pump() throws IOException {
+      if (closed) {
+        return false;
+      }
+      boolean progress = false;
+      while (!pending.isEmpty() && lines.offer(pending.peek())) {
+        pending.poll();
+        progress = true;
+      }
+      if (!pending.isEmpty()) {
+        return progress;
+      }
+
+      List<String> read = new ArrayList<>();
+      for (int i = 0; i < streams.size() && lines.remainingCapacity() > read.size(); i++) {
+        progress |= read(i, read);
+      }
+      for (String line : read) {
+        if (pending.isEmpty() && lines.offer(line)) {
+          continue;
+        }
+        pending.add(line);
+      }
+      return progress;
+    }
+
+    /**
+     * Reads what the stream has available without blocking, adding the complete lines.
+     */
+    private boolean read(int index, List<String> into) throws IOException {
+      InputStream stream = streams.get(index);
+      int available = stream.available();
+      if (available <= 0) {
+        return false;
+      }
+      byte[] buffer = new byte[Math.min(available, CHUNK_SIZE)];
+      int count = stream.read(buffer);
+      if (count <= 0) {
+        return false;
+      }
+
+      ByteArrayOutputStream partialLine = partialLines.get(index);
+      for (int i = 0; i < count; i++) {
+        byte b = buffer[i];
+        if (b == '\n') {
+          into.add(decode(partialLine));
+          partialLine.reset();
+        } else {
+          partialLine.write(b);
+        }
+      }
+      return true;
+    }
+
+    private String decode(ByteArrayOutputStream partialLine) {
+      String line = new String(partialLine.toByteArray(), Charset.defaultCharset());
+      return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+  }
+
+  /**
+   * Starts pumping the streams into a new channel holding at most capacity lines.
+   */
+  public Channel register(int capacity, InputStream... streams) {
+    Channel channel = new Channel(capacity, streams);
+    channels.add(channel);
+    ensureStarted();
+    return channel;
+  }
+
+  private synchronized void ensureStarted() {
+    if (thread != null && thread.isAlive()) {
+      // a pump thread finding no channel stops under this lock, after the channel was added
+      return;
+    }
+    thread = new Thread(this::pumpLoop, "ansible-output-pump");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void pumpLoop() {
+    while (true) {
+      if (channels.isEmpty()) {
+        synchronized (this) {
+          if (channels.isEmpty()) {
+            thread = null;
+            return;
+          }
+        }
+      }
+
+      boolean progress = false;
+      for (Channel channel : channels) {
+        try {
+          progress |= channel.pump();
+        } catch (IOException e) {
+          // the stream was closed by its run, it will close its channel
+        }
+      }
+      if (!progress) {
+        try {
+          Thread.sleep(IDLE_SLEEP_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.rundeck.plugins.ansible.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable trie of prefixes, tells in a single pass over a string whether it starts with any of them.
+ */
+public class PrefixMatcher {
+
+  private static class Node {
+    final Map<Character, Node> children = new HashMap<>();
+    boolean terminal;
+  }
+
+  private final Node root = new Node();
+
+  public PrefixMatcher(Collection<String> prefixes) {
+    for (String prefix : prefixes) {
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+      }
+      node.terminal = true;
+    }
+  }
+
+  /**
+   * @return true if the value starts with one of the prefixes
+   */
+  public boolean matches(String value) {
+    Node node = root;
+    if (node.terminal) {
+      return true;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      node = node.children.get(value.charAt(i));
+      if (node == null) {
+        return false;
+      }
+      if (node.terminal) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
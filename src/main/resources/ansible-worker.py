@@ -0,0 +1,151 @@
+"""
+Long-lived ansible worker used by the Rundeck ansible plugin worker pool.
+
+The ansible CLI modules are imported once at startup. Jobs are then read from stdin,
+one JSON document per line:
+
+  {"args": ["ansible", "all", "-m", "ping"], "cwd": "/tmp/x", "env": {...}, "input": "..."}
+
+Every output line of the job is written to stdout prefixed with "O ", and the job ends
+with "X <exit code>". The worker writes "R" once it is ready to accept jobs.
+
+With the "fork" isolation (default) each job runs in a forked child of the warm worker.
+With the "process" isolation the worker runs a single job in its own process, writes the
+job output unframed and exits with the job exit code.
+
+Each job runs in its own process group. When the worker is terminated it kills the process
+group of the running job, so the processes started by ansible, e.g. ssh connections, do not
+outlive an interrupted run.
+"""
+import json
+import os
+import signal
+import sys
+import traceback
+
+CLIS = {
+    'ansible': ('ansible.cli.adhoc', 'AdHocCLI'),
+    'ansible-playbook': ('ansible.cli.playbook', 'PlaybookCLI'),
+    'ansible-inventory': ('ansible.cli.inventory', 'InventoryCLI'),
+}
+
+running = {'pgid': None}
+
+
+def load_cli(command):
+    module_name, class_name = CLIS[os.path.basename(command)]
+    module = __import__(module_name, fromlist=[class_name])
+    return getattr(module, class_name)
+
+
+def run_cli(job, out_fd):
+    os.chdir(job['cwd'])
+    os.environ.clear()
+    os.environ.update(job['env'])
+
+    input_read, input_write = os.pipe()
+    os.write(input_write, job.get('input', '').encode('utf-8'))
+    os.close(input_write)
+    os.dup2(input_read, 0)
+    os.dup2(out_fd, 1)
+    os.dup2(out_fd, 2)
+
+    exit_code = 250
+    try:
+        cli = load_cli(job['args'][0])
+        if hasattr(cli, 'cli_executor'):
+            cli.cli_executor(job['args'])
+            exit_code = 0
+        else:
+            instance = cli(job['args'])
+            instance.parse()
+            exit_code = instance.run()
+    except SystemExit as e:
+        if e.code is None:
+            exit_code = 0
+        elif isinstance(e.code, int):
+            exit_code = e.code
+        else:
+            exit_code = 1
+    except BaseException:
+        traceback.print_exc()
+    finally:
+        sys.stdout.flush()
+        sys.stderr.flush()
+    return exit_code
+
+
+def forward(read_fd, protocol):
+    with os.fdopen(read_fd, 'rb') as output:
+        for line in output:
+            protocol.write(b'O ' + line.rstrip(b'\r\n') + b'\n')
+            protocol.flush()
+
+
+def terminate(signum, frame):
+    signal.signal(signum, signal.SIG_DFL)
+    if running['pgid'] is not None:
+        try:
+            os.killpg(running['pgid'], signum)
+        except OSError:
+            pass
+    # the worker leads its own process group, this stops it and a job run in process isolation
+    os.killpg(0, signum)
+
+
+def run_forked(job, protocol):
+    read_fd, write_fd = os.pipe()
+    pid = os.fork()
+    if pid == 0:
+        signal.signal(signal.SIGTERM, signal.SIG_DFL)
+        os.setpgid(0, 0)
+        os.close(read_fd)
+        os._exit(run_cli(job, write_fd))
+    # set by both processes so the group exists whichever runs first
+    try:
+        os.setpgid(pid, pid)
+    except OSError:
+        pass
+    running['pgid'] = pid
+    os.close(write_fd)
+    forward(read_fd, protocol)
+    _, status = os.waitpid(pid, 0)
+    running['pgid'] = None
+    if os.WIFEXITED(status):
+        return os.WEXITSTATUS(status)
+    return 128 + os.WTERMSIG(status)
+
+
+def main():
+    isolation = sys.argv[1] if len(sys.argv) > 1 else 'fork'
+    os.setpgid(0, 0)
+    signal.signal(signal.SIGTERM, terminate)
+    protocol = os.fdopen(os.dup(1), 'wb')
+    jobs = os.fdopen(os.dup(0), 'rb')
+
+    for command in CLIS:
+        try:
+            load_cli(command)
+        except Exception:
+            pass
+
+    protocol.write(b'R\n')
+    protocol.flush()
+
+    for line in jobs:
+        if not line.strip():
+            continue
+        job = json.loads(line.decode('utf-8'))
+        if isolation == 'process':
+            # the job output goes unframed to stdout, the worker exit status is the job's
+            protocol.close()
+            jobs.close()
+            sys.stdout.flush()
+            os._exit(run_cli(job, 1))
+        exit_code = run_forked(job, protocol)
+        protocol.write(('X %d\n' % exit_code).encode('utf-8'))
+        protocol.flush()
+
+
+if __name__ == '__main__':
+    main()
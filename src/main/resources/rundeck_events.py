@@ -0,0 +1,72 @@
+"""
+Callback plugin bundled with the Rundeck ansible plugin.
+
+It runs next to the stdout callback and writes one JSON document per event to stdout,
+each on its own line starting with the ASCII record separator (0x1e) so the plugin can
+tell events apart from the regular output while it streams in.
+"""
+from __future__ import (absolute_import, division, print_function)
+__metaclass__ = type
+
+DOCUMENTATION = '''
+    name: rundeck_events
+    type: aggregate
+    short_description: JSON lines events for the Rundeck ansible plugin
+    description:
+      - Writes play, task, per host result and stats events to stdout as JSON lines.
+    requirements:
+      - enabled in configuration
+'''
+
+import json
+import sys
+
+from ansible.plugins.callback import CallbackBase
+
+MARKER = '\x1e'
+
+
+class CallbackModule(CallbackBase):
+
+    CALLBACK_VERSION = 2.0
+    CALLBACK_TYPE = 'aggregate'
+    CALLBACK_NAME = 'rundeck_events'
+    CALLBACK_NEEDS_WHITELIST = True
+    CALLBACK_NEEDS_ENABLED = True
+
+    def _emit(self, event, **fields):
+        fields['event'] = event
+        sys.stdout.write(MARKER + json.dumps(fields) + '\n')
+        sys.stdout.flush()
+
+    def _emit_result(self, event, result, **fields):
+        fields['host'] = result._host.get_name()
+        fields['task'] = result._task.get_name()
+        fields['changed'] = bool(result._result.get('changed', False))
+        if 'msg' in result._result:
+            fields['msg'] = str(result._result['msg'])
+        self._emit(event, **fields)
+
+    def v2_playbook_on_play_start(self, play):
+        self._emit('play_start', play=play.get_name())
+
+    def v2_playbook_on_task_start(self, task, is_conditional):
+        self._emit('task_start', task=task.get_name())
+
+    def v2_runner_on_ok(self, result):
+        self._emit_result('runner_on_ok', result)
+
+    def v2_runner_on_failed(self, result, ignore_errors=False):
+        self._emit_result('runner_on_failed', result, ignore_errors=bool(ignore_errors))
+
+    def v2_runner_on_unreachable(self, result):
+        self._emit_result('runner_on_unreachable', result)
+
+    def v2_runner_on_skipped(self, result):
+        self._emit_result('runner_on_skipped', result)
+
+    def v2_playbook_on_stats(self, stats):
+        hosts = {}
+        for host in sorted(stats.processed.keys()):
+            hosts[host] = stats.summarize(host)
+        self._emit('stats', hosts=hosts)
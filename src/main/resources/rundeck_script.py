@@ -0,0 +1,54 @@
+"""
+Stdout callback bundled with the Rundeck ansible plugin.
+
+It prints ad-hoc results like the minimal callback, and the results of the script module
+like those of the shell module, "host | CHANGED | rc=0 >>" followed by the output, so
+scripts dispatched with the script module log the same way as commands.
+"""
+from __future__ import (absolute_import, division, print_function)
+__metaclass__ = type
+
+DOCUMENTATION = '''
+    name: rundeck_script
+    type: stdout
+    short_description: minimal output, with script results printed as commands
+    description:
+      - The minimal callback, printing the results of the script module as the shell module.
+    extends_documentation_fragment:
+      - default_callback
+    requirements:
+      - set as stdout in configuration
+'''
+
+from ansible import constants as C
+from ansible.plugins.callback.minimal import CallbackModule as MinimalCallback
+
+SCRIPT_ACTIONS = ('script', 'ansible.builtin.script', 'ansible.legacy.script')
+
+
+class CallbackModule(MinimalCallback):
+
+    CALLBACK_VERSION = 2.0
+    CALLBACK_TYPE = 'stdout'
+    CALLBACK_NAME = 'rundeck_script'
+
+    def _is_script(self, result):
+        return result._task.action in SCRIPT_ACTIONS and 'rc' in result._result
+
+    def v2_runner_on_ok(self, result):
+        if not self._is_script(result):
+            return super(CallbackModule, self).v2_runner_on_ok(result)
+        self._clean_results(result._result, result._task.action)
+        self._handle_warnings(result._result)
+        if result._result.get('changed', False):
+            color, state = C.COLOR_CHANGED, 'CHANGED'
+        else:
+            color, state = C.COLOR_OK, 'SUCCESS'
+        self._display.display(self._command_generic_msg(result._host.get_name(), result._result, state), color=color)
+
+    def v2_runner_on_failed(self, result, ignore_errors=False):
+        if not self._is_script(result):
+            return super(CallbackModule, self).v2_runner_on_failed(result, ignore_errors)
+        self._handle_exception(result._result)
+        self._handle_warnings(result._result)
+        self._display.display(self._command_generic_msg(result._host.get_name(), result._result, 'FAILED'), color=C.COLOR_ERROR)
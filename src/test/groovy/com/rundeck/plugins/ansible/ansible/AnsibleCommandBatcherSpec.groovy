@@ -0,0 +1,204 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.dtolabs.rundeck.core.common.INodeEntry
+import com.dtolabs.rundeck.core.common.INodeSet
+import com.dtolabs.rundeck.core.execution.ExecutionContext
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class AnsibleCommandBatcherSpec extends Specification {
+
+    def "collector splits the output of an ad-hoc run per host"() {
+        given:
+        def collector = new AnsibleCommandBatcher.HostOutputCollector()
+
+        when:
+        [
+            '[WARNING]: Platform linux on host node2 is using the discovered Python interpreter',
+            'node1 | CHANGED | rc=0 >>',
+            'hello',
+            'node2 | FAILED | rc=2 >>',
+            'ls: cannot access /missing',
+            'node3 | UNREACHABLE! => {',
+            '    "changed": false,',
+            '    "unreachable": true',
+            '}',
+            'node4 | SUCCESS => {',
+            '    "ping": "pong"',
+            '}'
+        ].each { collector.output(it) }
+        def results = collector.getResults()
+
+        then:
+        collector.getPreamble() == ['[WARNING]: Platform linux on host node2 is using the discovered Python interpreter']
+        results.keySet() == ['node1', 'node2', 'node3', 'node4'] as Set
+
+        results.node1.success
+        results.node1.returnCode == 0
+        results.node1.message == null
+        results.node1.output == ['node1 | CHANGED | rc=0 >>', 'hello']
+
+        !results.node2.success
+        results.node2.returnCode == 2
+        results.node2.message == 'Ansible reported FAILED for host node2'
+        results.node2.output == ['node2 | FAILED | rc=2 >>', 'ls: cannot access /missing']
+
+        !results.node3.success
+        results.node3.returnCode == -1
+        results.node3.output.size() == 4
+
+        results.node4.success
+        results.node4.returnCode == 0
+    }
+
+    def "collector fails a changed host with a non zero return code"() {
+        given:
+        def collector = new AnsibleCommandBatcher.HostOutputCollector()
+
+        when:
+        collector.output('node1 | CHANGED | rc=1 >>')
+
+        then:
+        !collector.getResults().node1.success
+        collector.getResults().node1.returnCode == 1
+    }
+
+    def "nodes joining within the window share one run"() {
+        given:
+        def batcher = new AnsibleCommandBatcher()
+        def runs = new CopyOnWriteArrayList<List<String>>()
+        def runner = { List<INodeEntry> nodes ->
+            runs.add(nodes*.nodename)
+            nodes.collectEntries { [(it.nodename): result(it.nodename)] }
+        } as AnsibleCommandBatcher.BatchRunner
+        def executor = Executors.newFixedThreadPool(3)
+
+        when:
+        List<Future<AnsibleCommandBatcher.HostResult>> futures = ['node1', 'node2', 'node3'].collect { name ->
+            def entry = node(name)
+            executor.submit({ batcher.execute('key', entry, 1000, runner) } as Callable)
+        }
+        def results = futures*.get()
+
+        then:
+        runs.size() == 1
+        runs[0] as Set == ['node1', 'node2', 'node3'] as Set
+        results*.message == ['node1', 'node2', 'node3']
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "nodes with different keys run separately"() {
+        given:
+        def batcher = new AnsibleCommandBatcher()
+        def runs = new CopyOnWriteArrayList<List<String>>()
+        def runner = { List<INodeEntry> nodes ->
+            runs.add(nodes*.nodename)
+            nodes.collectEntries { [(it.nodename): result(it.nodename)] }
+        } as AnsibleCommandBatcher.BatchRunner
+        def executor = Executors.newFixedThreadPool(2)
+
+        when:
+        def node1 = node('node1')
+        def node2 = node('node2')
+        def first = executor.submit({ batcher.execute('key1', node1, 200, runner) } as Callable)
+        def second = executor.submit({ batcher.execute('key2', node2, 200, runner) } as Callable)
+        first.get()
+        second.get()
+
+        then:
+        runs as Set == [['node1'], ['node2']] as Set
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "a host the run did not report fails"() {
+        given:
+        def batcher = new AnsibleCommandBatcher()
+        def runner = { List<INodeEntry> nodes -> [:] } as AnsibleCommandBatcher.BatchRunner
+
+        when:
+        def hostResult = batcher.execute('key', node('node1'), 0, runner)
+
+        then:
+        !hostResult.success
+        hostResult.message == 'Ansible did not report a result for host node1'
+    }
+
+    def "nodes run alone when the leader of their batch is interrupted"() {
+        given:
+        def batcher = new AnsibleCommandBatcher()
+        def runs = new CopyOnWriteArrayList<List<String>>()
+        def runner = { List<INodeEntry> nodes ->
+            runs.add(nodes*.nodename)
+            nodes.collectEntries { [(it.nodename): result(it.nodename)] }
+        } as AnsibleCommandBatcher.BatchRunner
+        def executor = Executors.newFixedThreadPool(3)
+
+        when:
+        def node1 = node('node1')
+        def leaderThread = null
+        def leader = executor.submit({
+            leaderThread = Thread.currentThread()
+            batcher.execute('key', node1, 60000, runner)
+        } as Callable)
+        while (leaderThread == null) {
+            Thread.sleep(10)
+        }
+        Thread.sleep(100)
+        def followers = ['node2', 'node3'].collect { name ->
+            def entry = node(name)
+            executor.submit({ batcher.execute('key', entry, 60000, runner) } as Callable)
+        }
+        Thread.sleep(100)
+        leaderThread.interrupt()
+        def results = followers*.get()
+        leader.get()
+
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof InterruptedException
+        results*.message == ['node2', 'node3']
+        runs as Set == [['node2'], ['node3']] as Set
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "batches only when several nodes are dispatched in parallel"() {
+        given:
+        def nodes = Stub(INodeSet) {
+            getNodeNames() >> nodeNames
+        }
+        def context = Stub(ExecutionContext) {
+            getThreadCount() >> threadCount
+            getNodes() >> nodes
+        }
+
+        expect:
+        AnsibleCommandBatcher.isDispatchedInParallel(context) == parallel
+
+        where:
+        threadCount | nodeNames          | parallel
+        1           | ['node1', 'node2'] | false
+        2           | ['node1']          | false
+        2           | ['node1', 'node2'] | true
+    }
+
+    private INodeEntry node(String name) {
+        Stub(INodeEntry) {
+            getNodename() >> name
+        }
+    }
+
+    private static AnsibleCommandBatcher.HostResult result(String name) {
+        new AnsibleCommandBatcher.HostResult(true, 0, name, [])
+    }
+}
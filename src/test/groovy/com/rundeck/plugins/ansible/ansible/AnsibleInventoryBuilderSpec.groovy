@@ -0,0 +1,80 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.dtolabs.rundeck.core.common.INodeEntry
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class AnsibleInventoryBuilderSpec extends Specification {
+
+    Path inventory
+
+    def setup() {
+        inventory = Files.createTempFile('inventory', '.json')
+    }
+
+    def cleanup() {
+        Files.deleteIfExists(inventory)
+    }
+
+    def "attribute values are written with their JSON type"() {
+        when:
+        def host = writeHost([value: value])
+
+        then:
+        host.get('value') == JsonParser.parseString(expected)
+
+        where:
+        value              | expected
+        '12'               | '12'
+        '-3.5'             | '-3.5'
+        '1e6'              | '1e6'
+        'true'             | 'true'
+        'True'             | 'true'
+        'FALSE'            | 'false'
+        '[1, "a"]'         | '[1, "a"]'
+        '{"a": {"b": 1}}'  | '{"a": {"b": 1}}'
+        '"quoted"'         | '"quoted"'
+        "'single'"         | '"single"'
+        'text'             | '"text"'
+        '012'              | '"012"'
+        '0x1F'             | '"0x1F"'
+        '1.'               | '"1."'
+        '{not json'        | '"{not json"'
+        "'"                | '"\'"'
+        ' 7 '              | '7'
+    }
+
+    def "empty and null values are left out"() {
+        when:
+        def host = writeHost([empty: '', blank: '  ', none: 'null'])
+
+        then:
+        !host.has('empty')
+        !host.has('blank')
+        !host.has('none')
+    }
+
+    def "the hostname is the ansible host"() {
+        when:
+        def host = writeHost([ansible_host: 'ignored', groups: 'reserved'])
+
+        then:
+        host.get('ansible_host').getAsString() == 'node1.example.com'
+        !host.has('groups')
+    }
+
+    private JsonObject writeHost(Map<String, String> attributes) {
+        def node = Stub(INodeEntry) {
+            getNodename() >> 'node1'
+            getHostname() >> 'node1.example.com'
+            getAttributes() >> attributes
+        }
+        new AnsibleInventoryBuilder([node]).writeInventory(inventory)
+        def json = JsonParser.parseString(new String(Files.readAllBytes(inventory), 'UTF-8')).getAsJsonObject()
+        json.getAsJsonObject('all').getAsJsonObject('hosts').getAsJsonObject('node1')
+    }
+}
@@ -0,0 +1,85 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.dtolabs.rundeck.core.common.INodeEntry
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.PosixFilePermissions
+
+class AnsibleInventoryCacheSpec extends Specification {
+
+    Path base
+
+    def setup() {
+        base = Files.createTempDirectory('inventory-cache')
+    }
+
+    def cleanup() {
+        base.toFile().deleteDir()
+    }
+
+    def "the cache directory is created private to its owner"() {
+        when:
+        AnsibleInventoryCache.getInstance(null, base, 4)
+
+        then:
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(base.resolve('ansible-inventories'))) == 'rwx------'
+    }
+
+    def "a directory other users may access is refused"() {
+        given:
+        def directory = Files.createDirectory(base.resolve('shared'),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString('rwx------')))
+        Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString('rwxrwxrwx'))
+
+        when:
+        AnsibleInventoryCache.getInstance(directory.toString(), base, 4)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('rwxrwxrwx')
+    }
+
+    def "files left by a previous run are removed"() {
+        given:
+        def directory = Files.createDirectory(base.resolve('previous'),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString('rwx------')))
+        def planted = Files.write(directory.resolve(AnsibleInventoryCache.hash([node('node1')], null) + '.json'),
+                '{"all": {"hosts": {"node1": {"ansible_connection": "local"}}}}'.bytes)
+
+        when:
+        def lease = AnsibleInventoryCache.getInstance(directory.toString(), base, 4).acquire([node('node1')])
+
+        then:
+        lease.file == planted
+        !new String(Files.readAllBytes(lease.file), 'UTF-8').contains('ansible_connection')
+
+        cleanup:
+        lease?.release()
+    }
+
+    def "runs over the same nodes share the file"() {
+        given:
+        def cache = AnsibleInventoryCache.getInstance(null, base, 4)
+
+        when:
+        def first = cache.acquire([node('node1'), node('node2')])
+        def second = cache.acquire([node('node2'), node('node1')])
+
+        then:
+        first.file == second.file
+
+        cleanup:
+        first?.release()
+        second?.release()
+    }
+
+    private INodeEntry node(String name) {
+        Stub(INodeEntry) {
+            getNodename() >> name
+            getHostname() >> name
+            getAttributes() >> [osFamily: 'unix']
+        }
+    }
+}
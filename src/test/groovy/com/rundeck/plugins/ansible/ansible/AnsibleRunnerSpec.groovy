@@ -0,0 +1,244 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+
+class AnsibleRunnerSpec extends Specification {
+
+    def "hosts keep the status of their last attempt"() {
+        given:
+        Map<String, AnsibleNodeResults.Status> statuses = new LinkedHashMap<>()
+
+        when:
+        attempts.each { stats ->
+            statuses.putAll(results(stats).getStatuses())
+        }
+
+        then:
+        AnsibleRunner.getNotOkHosts(statuses) == notOk
+
+        where:
+        attempts                                                         | notOk
+        [[a: 'ok', b: 'ok']]                                             | []
+        [[a: 'ok', b: 'unreachable', c: 'failures'], [b: 'ok']]          | ['c']
+        [[a: 'ok', b: 'unreachable', c: 'failures'], [b: 'unreachable']] | ['b', 'c']
+        [[a: 'unreachable', b: 'unreachable'], [a: 'ok'], [b: 'ok']]     | []
+    }
+
+    def "a failed task rescued later does not fail its host"() {
+        given:
+        def nodeResults = new AnsibleNodeResults()
+
+        when:
+        nodeResults.onEvent(event('{"event": "runner_on_failed", "host": "a", "msg": "boom"}'))
+        nodeResults.onEvent(event('{"event": "stats", "hosts": {"a": {"ok": 2, "failures": 0, "rescued": 1}}}'))
+
+        then:
+        AnsibleRunner.getNotOkHosts(nodeResults.getStatuses()) == []
+    }
+
+    def "only the hosts whose failure is retried run again"() {
+        given:
+        def scenario = scenario(*attempts)
+
+        when:
+        def runner = runner(scenario, retryOn).limit(['a', 'b', 'c'])
+        runner.run()
+
+        then:
+        thrown(AnsibleException)
+        limits(scenario) == expectedLimits
+        runner.failedHosts == failed
+
+        where:
+        retryOn                         | attempts                                                                                  | expectedLimits        | failed
+        AnsibleRunner.RETRY_UNREACHABLE | [[a: 'ok', b: 'unreachable', c: 'failures'], [b: 'unreachable'], [b: 'ok']]               | ['a,b,c', 'b', 'b']   | ['c']
+        AnsibleRunner.RETRY_FAILED      | [[a: 'ok', b: 'unreachable', c: 'failures'], [c: 'failures'], [c: 'ok']]                  | ['a,b,c', 'c', 'c']   | ['b']
+        AnsibleRunner.RETRY_ALL         | [[a: 'ok', b: 'unreachable', c: 'failures'], [b: 'ok', c: 'failures'], [c: 'failures']]   | ['a,b,c', 'b,c', 'c'] | ['c']
+    }
+
+    def "hosts recovered by a retry do not fail the run"() {
+        given:
+        def scenario = scenario([a: 'ok', b: 'unreachable', c: 'failures'], [b: 'ok', c: 'failures'], [c: 'ok'])
+
+        when:
+        def runner = runner(scenario, AnsibleRunner.RETRY_ALL).limit(['a', 'b', 'c'])
+        def result = runner.run()
+
+        then:
+        result == 0
+        limits(scenario) == ['a,b,c', 'b,c', 'c']
+        runner.failedHosts == []
+    }
+
+    def "the attempts stop at the configured number"() {
+        given:
+        def scenario = scenario([a: 'unreachable'], [a: 'unreachable'], [a: 'unreachable'], [a: 'ok'])
+
+        when:
+        def runner = runner(scenario, AnsibleRunner.RETRY_UNREACHABLE).retryAttempts(2).limit('a')
+        runner.run()
+
+        then:
+        def e = thrown(AnsibleException)
+        e.failureReason == AnsibleException.AnsibleFailureReason.AnsibleNonZero
+        limits(scenario) == ['a', 'a']
+        runner.failedHosts == ['a']
+    }
+
+    def "a host failing without being retried fails the run after the retries succeed"() {
+        given:
+        def scenario = scenario([a: 'failures', b: 'unreachable'], [b: 'ok'])
+
+        when:
+        def runner = runner(scenario, AnsibleRunner.RETRY_UNREACHABLE).limit(['a', 'b'])
+        runner.run()
+
+        then:
+        def e = thrown(AnsibleException)
+        e.message.contains('hosts: a')
+        limits(scenario) == ['a,b', 'b']
+        runner.failedHosts == ['a']
+    }
+
+    def "every attempt runs in the directory given to the runner"() {
+        given:
+        def scenario = scenario([a: 'unreachable'], [a: 'ok'])
+        def directory = Files.createTempDirectory('ansible-base')
+
+        when:
+        runner(scenario, AnsibleRunner.RETRY_UNREACHABLE).tempDirectory(directory).retainTempDirectory().limit('a').run()
+
+        then:
+        directories(scenario) == [directory.toRealPath(), directory.toRealPath()]
+        Files.isDirectory(directory)
+
+        cleanup:
+        directory.toFile().deleteDir()
+    }
+
+    def "the temp directory given to the runner is removed after the last attempt"() {
+        given:
+        def scenario = scenario([a: 'unreachable'], [a: 'ok'])
+        def directory = Files.createTempDirectory('ansible-base')
+        def realPath = directory.toRealPath()
+
+        when:
+        runner(scenario, AnsibleRunner.RETRY_UNREACHABLE).tempDirectory(directory).limit('a').run()
+
+        then:
+        directories(scenario) == [realPath, realPath]
+        !Files.exists(directory)
+    }
+
+    def "the ssh_args of the first ansible.cfg found are kept"() {
+        given:
+        def directory = Files.createTempDirectory('ansible-cfg')
+        def config = Files.write(directory.resolve('custom.cfg'), ('[defaults]\nssh_args = -o Ignored=yes\n' +
+                '[ssh_connection]\n# ssh_args = -o Commented=yes\nssh_args = -o ProxyJump=bastion\n').bytes)
+        Files.write(directory.resolve('ansible.cfg'), '[ssh_connection]\nssh_args: -o Other=yes\n'.bytes)
+
+        expect:
+        AnsibleRunner.getConfiguredSshArgs([ANSIBLE_CONFIG: config.toString()], directory) == '-o ProxyJump=bastion'
+        AnsibleRunner.getConfiguredSshArgs([:], directory) == '-o Other=yes'
+
+        cleanup:
+        directory.toFile().deleteDir()
+    }
+
+    def "the first ansible.cfg found is used even without ssh_args"() {
+        given:
+        def directory = Files.createTempDirectory('ansible-cfg')
+        def config = Files.write(directory.resolve('custom.cfg'), '[ssh_connection]\npipelining = True\n'.bytes)
+        Files.write(directory.resolve('ansible.cfg'), '[ssh_connection]\nssh_args = -o Other=yes\n'.bytes)
+
+        expect:
+        AnsibleRunner.getConfiguredSshArgs([ANSIBLE_CONFIG: config.toString()], directory) == null
+
+        cleanup:
+        directory.toFile().deleteDir()
+    }
+
+    /**
+     * A fake ansible-playbook printing the recap of the next attempt as a rundeck_events event and
+     * recording the hosts it was limited to and its working directory.
+     *
+     * @param attempts the outcome of every host of each attempt, the name of its non zero recap counter
+     */
+    private Path scenario(Map<String, String>... attempts) {
+        def directory = Files.createTempDirectory('ansible-scenario')
+        attempts.eachWithIndex { stats, i ->
+            def hosts = stats.collectEntries { host, counter -> [(host): [(counter): 1]] }
+            Files.write(directory.resolve("events-${i + 1}".toString()), new Gson().toJson([event: 'stats', hosts: hosts]).bytes)
+            Files.write(directory.resolve("exit-${i + 1}".toString()), (stats.values().every { it == 'ok' } ? '0' : '2').bytes)
+        }
+        def playbook = directory.resolve('ansible-playbook')
+        Files.write(playbook, '''#!/bin/sh
+n=$(( $(cat "$SCENARIO/count" 2>/dev/null || echo 0) + 1 ))
+echo $n > "$SCENARIO/count"
+limit=""
+previous=""
+for arg in "$@"; do
+  if [ "$previous" = "-l" ]; then limit="$arg"; fi
+  previous="$arg"
+done
+case "$limit" in
+  @*) limit=$(paste -s -d, "${limit#@}") ;;
+esac
+echo "$limit" > "$SCENARIO/limit-$n"
+pwd -P > "$SCENARIO/directory-$n"
+printf '\\036%s\\n' "$(cat "$SCENARIO/events-$n")"
+exit $(cat "$SCENARIO/exit-$n")
+'''.bytes)
+        playbook.toFile().setExecutable(true)
+        scenarios << directory
+        directory
+    }
+
+    private List<Path> scenarios = []
+
+    def cleanup() {
+        scenarios*.toFile()*.deleteDir()
+    }
+
+    private static AnsibleRunner runner(Path scenario, String retryOn) {
+        AnsibleRunner.playbookPath('site.yml')
+                .ansibleBinariesDirectory(scenario.toString())
+                .options([SCENARIO: scenario.toString()])
+                .retryAttempts(3)
+                .retryBackoff(0)
+                .retryOn(retryOn)
+    }
+
+    private static List<String> limits(Path scenario) {
+        recorded(scenario, 'limit')
+    }
+
+    private static List<Path> directories(Path scenario) {
+        recorded(scenario, 'directory').collect { Paths.get(it) }
+    }
+
+    private static List<String> recorded(Path scenario, String name) {
+        def count = Integer.parseInt(new String(Files.readAllBytes(scenario.resolve('count')), 'UTF-8').trim())
+        (1..count).collect { new String(Files.readAllBytes(scenario.resolve("$name-$it".toString())), 'UTF-8').trim() }
+    }
+
+    /**
+     * @param stats the outcome of every host of the attempt, the name of its non zero recap counter
+     */
+    private static AnsibleNodeResults results(Map<String, String> stats) {
+        def hosts = stats.collectEntries { host, counter -> [(host): [(counter): 1]] }
+        def nodeResults = new AnsibleNodeResults()
+        nodeResults.onEvent(event(new Gson().toJson([event: 'stats', hosts: hosts])))
+        nodeResults
+    }
+
+    private static AnsibleEvent event(String json) {
+        AnsibleEvent.fromJson(JsonParser.parseString(json).getAsJsonObject())
+    }
+}
@@ -0,0 +1,134 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.rundeck.plugins.ansible.util.Listener
+import spock.lang.Specification
+
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.stream.Collectors
+
+class AnsibleStagingDirectorySpec extends Specification {
+
+    def "files are readable by their owner only and removed with the directory"() {
+        given:
+        def staging = AnsibleStagingDirectory.create()
+
+        when:
+        def file = staging.write('vars.json', '{"a": 1}'.bytes)
+
+        then:
+        file.parent == staging.directory
+        new String(Files.readAllBytes(file), 'UTF-8') == '{"a": 1}'
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(staging.directory)) == 'rwx------'
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(file)) == 'rw-------'
+
+        when:
+        staging.close()
+
+        then:
+        !Files.exists(file)
+        !Files.exists(staging.directory)
+    }
+
+    def "closing twice does nothing"() {
+        given:
+        def staging = AnsibleStagingDirectory.create()
+        staging.close()
+
+        when:
+        staging.close()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "no directory is left behind after many runs, whether they succeed or fail"() {
+        given:
+        def root = root()
+        def before = stagingDirectories(root)
+
+        when:
+        200.times { i ->
+            try {
+                AnsibleStagingDirectory.create().withCloseable { staging ->
+                    staging.write('playbook.yml', '- hosts: all'.bytes)
+                    staging.write('vault', 'secret'.bytes)
+                    if (i % 3 == 1) {
+                        // a file written twice fails the write
+                        staging.write('vault', 'secret'.bytes)
+                    }
+                    if (i % 3 == 2) {
+                        throw new IllegalStateException('the run failed')
+                    }
+                }
+            } catch (FileAlreadyExistsException | IllegalStateException e) {
+                // expected for the failing runs
+            }
+        }
+
+        then:
+        stagingDirectories(root) == before
+        registeredForDeletionOnExit(root) == []
+    }
+
+    def "no directory is left behind by failed ansible runs"() {
+        given:
+        def root = root()
+        def before = stagingDirectories(root)
+        def binaries = Files.createTempDirectory('ansible-binaries')
+        def playbook = Files.write(binaries.resolve('ansible-playbook'), '#!/bin/sh\necho failed\nexit 2\n'.bytes)
+        playbook.toFile().setExecutable(true)
+
+        when:
+        20.times { i ->
+            def runner = AnsibleRunner.playbookInline('- hosts: all')
+                    .ansibleBinariesDirectory(binaries.toString())
+                    .limit(['a', 'b'])
+                    .extraVars('{"a": 1}')
+                    .vaultPass('secret')
+                    .sshPrivateKey('key')
+                    .listener({ } as Listener)
+            if (i % 2 == 1) {
+                // fails after the files were written, before ansible is started
+                runner.sshUsePassword(true)
+            }
+            try {
+                runner.run()
+            } catch (AnsibleException e) {
+                // expected
+            }
+        }
+
+        then:
+        stagingDirectories(root) == before
+        registeredForDeletionOnExit(root) == []
+
+        cleanup:
+        binaries.toFile().deleteDir()
+    }
+
+    private static Path root() {
+        def staging = AnsibleStagingDirectory.create()
+        staging.close()
+        staging.directory.parent
+    }
+
+    private static Set<Path> stagingDirectories(Path root) {
+        Files.list(root).withCloseable { entries ->
+            entries.filter { it.fileName.toString().startsWith('ansible-runner') }.collect(Collectors.toSet())
+        }
+    }
+
+    /**
+     * @return the staging paths registered with File.deleteOnExit, which would be kept until the JVM exits
+     */
+    private static List<String> registeredForDeletionOnExit(Path root) {
+        def field = Class.forName('java.io.DeleteOnExitHook').getDeclaredField('files')
+        field.accessible = true
+        synchronized (Class.forName('java.io.DeleteOnExitHook')) {
+            (field.get(null) as Collection<String>).findAll { it.startsWith(root.resolve('ansible-runner').toString()) }.toList()
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.rundeck.plugins.ansible.util.Listener
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class AnsibleWorkerPoolSpec extends Specification {
+
+    /**
+     * Stands for ansible-worker.py: prints a line before being ready, then for each job the pid of
+     * the worker and three lines, and exits with the code given as first argument of the job.
+     * With the fork isolation the output is framed and the worker serves the next job, with the
+     * process isolation it is raw and the worker exits after the job.
+     */
+    private static final String STUB_WORKER = '''#!/bin/sh
+isolation="$2"
+echo "starting"
+echo "R"
+while read -r job; do
+  code=$(echo "$job" | sed -n 's/.*"args":\\["ansible","\\([0-9]*\\)".*/\\1/p')
+  if [ "$isolation" = "process" ]; then
+    echo "worker $$"
+    for i in 1 2 3; do echo "line $i"; done
+    exit "$code"
+  fi
+  echo "O worker $$"
+  for i in 1 2 3; do echo "O line $i"; done
+  echo "X $code"
+done
+'''
+
+    Path binaries
+
+    def setup() {
+        binaries = Files.createTempDirectory('ansible-binaries')
+        def worker = Files.write(binaries.resolve('stub-worker'), STUB_WORKER.bytes)
+        worker.toFile().setExecutable(true)
+        // the pool runs the worker with the interpreter of the ansible entry point
+        Files.write(binaries.resolve('ansible'), "#!${worker}\n".toString().bytes)
+    }
+
+    def cleanup() {
+        binaries.toFile().deleteDir()
+    }
+
+    def "a run returns the exit code and the output of the worker in order"() {
+        given:
+        def pool = pool(AnsibleWorkerPool.ISOLATION_FORK, 60)
+        def lines = []
+
+        when:
+        def result = pool.run(['ansible', '3'], binaries, [:], '', { lines << it } as Listener)
+
+        then:
+        result == 3
+        lines[0] == 'starting'
+        lines[1].startsWith('worker ')
+        lines[2..-1] == ['line 1', 'line 2', 'line 3']
+    }
+
+    def "a worker forking its runs serves the next run"() {
+        given:
+        def pool = pool(AnsibleWorkerPool.ISOLATION_FORK, 60)
+
+        when:
+        def first = workerOf(pool, 0)
+        def second = workerOf(pool, 1)
+
+        then:
+        first == second
+        alive(first)
+    }
+
+    def "a worker serving a single run is replaced by a new one"() {
+        given:
+        def pool = pool(AnsibleWorkerPool.ISOLATION_PROCESS, 60)
+        def lines = []
+
+        when:
+        def result = pool.run(['ansible', '4'], binaries, [:], '', { lines << it } as Listener)
+        def first = Long.parseLong(lines.find { it.startsWith('worker ') }.substring(7))
+        def second = workerOf(pool, 0)
+
+        then:
+        result == 4
+        lines.findAll { it.startsWith('line ') } == ['line 1', 'line 2', 'line 3']
+        first != second
+        !alive(first)
+    }
+
+    def "an idle pool stops its workers and is removed"() {
+        given:
+        def idlePool = pool(AnsibleWorkerPool.ISOLATION_FORK, 1)
+        def worker = workerOf(idlePool, 0)
+
+        when:
+        def deadline = System.currentTimeMillis() + 10000
+        while ((pool(AnsibleWorkerPool.ISOLATION_FORK, 1).is(idlePool) || alive(worker))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100)
+        }
+
+        then:
+        !pool(AnsibleWorkerPool.ISOLATION_FORK, 1).is(idlePool)
+        !alive(worker)
+    }
+
+    private AnsibleWorkerPool pool(String isolation, int idleTimeout) {
+        AnsibleWorkerPool.getPool(binaries, [PATH: System.getenv('PATH')], binaries, 1, idleTimeout, isolation)
+    }
+
+    /**
+     * @return the pid of the worker which served a run
+     */
+    private long workerOf(AnsibleWorkerPool pool, int code) {
+        def lines = []
+        assert pool.run(['ansible', code.toString()], binaries, [:], '', { lines << it } as Listener) == code
+        Long.parseLong(lines.find { it.startsWith('worker ') }.substring(7))
+    }
+
+    private static boolean alive(long pid) {
+        // the pool destroys its workers, which the JVM reaps
+        new ProcessBuilder('kill', '-0', Long.toString(pid)).redirectErrorStream(true).start().waitFor() == 0
+    }
+}
@@ -0,0 +1,77 @@
+package com.rundeck.plugins.ansible.ansible
+
+import com.dtolabs.rundeck.core.common.Framework
+import com.dtolabs.rundeck.core.common.INodeEntry
+import spock.lang.Specification
+
+class PropertySnapshotSpec extends Specification {
+
+    def "the snapshot resolves the same values as the framework"() {
+        given:
+        def framework = framework(projectProperties, frameworkProperties)
+        def snapshot = new PropertySnapshot(framework, 'project')
+
+        expect:
+        snapshot.get('ansible-x') == expected
+        PropertyResolver.resolveProperty('ansible-x', 'default', snapshot, null, null) ==
+                PropertyResolver.resolveProperty('ansible-x', 'default', 'project', framework, null, null)
+        PropertyResolver.resolveProperty('ansible-x', null, snapshot, null, null) ==
+                PropertyResolver.resolveProperty('ansible-x', null, 'project', framework, null, null)
+
+        where:
+        projectProperties             | frameworkProperties             | expected
+        ['project.ansible-x': 'p']    | ['framework.ansible-x': 'f']    | 'p'
+        ['project.ansible-x': 'p']    | [:]                             | 'p'
+        ['project.ansible-x': '']     | ['framework.ansible-x': 'f']    | 'f'
+        ['project.ansible-x': '']     | [:]                             | null
+        [:]                           | ['framework.ansible-x': 'f']    | 'f'
+        [:]                           | ['framework.ansible-x': '']     | ''
+        [:]                           | [:]                             | null
+        ['project.ansible-y': 'p']    | ['framework.ansible-y': 'f']    | null
+    }
+
+    def "job configuration and node attributes still come first"() {
+        given:
+        def framework = framework(['project.ansible-x': 'p'], [:])
+        def snapshot = new PropertySnapshot(framework, 'project')
+        def node = Stub(INodeEntry) {
+            getAttributes() >> nodeAttributes
+        }
+
+        expect:
+        PropertyResolver.resolveProperty('ansible-x', null, snapshot, node, jobConf) == expected
+        PropertyResolver.resolveProperty('ansible-x', null, 'project', framework, node, jobConf) == expected
+
+        where:
+        jobConf              | nodeAttributes        | expected
+        ['ansible-x': 'job'] | ['ansible-x': 'node'] | 'job'
+        null                 | ['ansible-x': 'node'] | 'node'
+        [:]                  | [:]                   | 'p'
+    }
+
+    def "found and missing values are looked up once"() {
+        given:
+        def framework = Mock(Framework)
+        def snapshot = new PropertySnapshot(framework, 'project')
+
+        when:
+        def values = (1..3).collect { [snapshot.get('ansible-found'), snapshot.get('ansible-missing')] }
+
+        then:
+        1 * framework.hasProjectProperty('project.ansible-found', 'project') >> true
+        1 * framework.getProjectProperty('project', 'project.ansible-found') >> 'value'
+        1 * framework.hasProjectProperty('project.ansible-missing', 'project') >> false
+        1 * framework.hasProperty('framework.ansible-missing') >> false
+        0 * framework._
+        values == [['value', null]] * 3
+    }
+
+    private Framework framework(Map<String, String> projectProperties, Map<String, String> frameworkProperties) {
+        Stub(Framework) {
+            hasProjectProperty(_, 'project') >> { String name, String project -> projectProperties.containsKey(name) }
+            getProjectProperty('project', _) >> { String project, String name -> projectProperties[name] }
+            hasProperty(_) >> { String name -> frameworkProperties.containsKey(name) }
+            getProperty(_) >> { String name -> frameworkProperties[name] }
+        }
+    }
+}
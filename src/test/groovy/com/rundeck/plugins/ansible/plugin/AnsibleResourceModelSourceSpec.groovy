@@ -0,0 +1,143 @@
+package com.rundeck.plugins.ansible.plugin
+
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import com.google.gson.stream.JsonReader
+import com.rundeck.plugins.ansible.ansible.AnsibleAttributeMapping
+import com.rundeck.plugins.ansible.util.PrefixMatcher
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.function.BiConsumer
+
+class AnsibleResourceModelSourceSpec extends Specification {
+
+    def "reading only the vars used gives the same node as parsing the whole host document"() {
+        given:
+        def source = source(importInventoryVars, rules)
+        def document = new Gson().toJson(hostVars('node1'))
+
+        when:
+        def selective = source.buildNode(source.readHostVars(new JsonReader(new StringReader(document))), new Gson())
+        def full = source.buildNode(JsonParser.parseString(document).asJsonObject, new Gson())
+
+        then:
+        selective.attributes == full.attributes
+        selective.tags == full.tags
+        selective.attributes.nodename == 'node1'
+        selective.attributes.hostname == '10.0.0.1'
+        selective.attributes.description == 'Ubuntu 22.04.3 LTS'
+        selective.attributes.tz == 'UTC'
+        selective.attributes.processor1 == 'GenuineIntel'
+
+        where:
+        importInventoryVars | rules
+        false               | null
+        true                | null
+        false               | 'ansible_mounts.1.mount=second_mount,ansible_eth0.ipv4.address=address'
+        true                | 'ansible_mounts.1.mount=second_mount,ansible_eth0.ipv4.address=address'
+    }
+
+    def "mapped and inventory vars are read from the large facts"() {
+        given:
+        def source = source(true, 'ansible_mounts.1.mount=second_mount')
+        def document = new Gson().toJson(hostVars('node1'))
+
+        when:
+        def node = source.buildNode(source.readHostVars(new JsonReader(new StringReader(document))), new Gson())
+
+        then:
+        node.attributes.second_mount == '/mnt/1'
+        node.attributes.app_role == 'web'
+        node.attributes.app_ports == '[80,443]'
+        !node.attributes.containsKey('ansible_mounts')
+    }
+
+    def "parallel ingest gives the same nodes in the same order as sequential ingest"() {
+        given:
+        def dataFile = Files.createTempFile('data', '.jsonl')
+        Files.write(dataFile, (1..300).collect { i ->
+            def vars = hostVars("node$i".toString())
+            vars.ansible_host = "10.0.${i.intdiv(256)}.${i % 256}".toString()
+            vars.ansible_mounts = vars.ansible_mounts.take(i % 50)
+            vars.group_names = ["group${i % 7}".toString()]
+            new Gson().toJson(vars)
+        })
+        def sequential = read(source(true, null), dataFile)
+
+        when:
+        def source = source(true, null)
+        source.@ingestThreads = threads
+        def parallel = read(source, dataFile)
+
+        then:
+        parallel.size() == 300
+        parallel*.nodename == (1..300).collect { "node$it".toString() }
+        parallel == sequential
+
+        cleanup:
+        Files.deleteIfExists(dataFile)
+
+        where:
+        threads << [2, 4, 16]
+    }
+
+    /**
+     * @return the nodes read from the data file, in the order handed to the consumer
+     */
+    private static List<Map> read(AnsibleResourceModelSource source, Path dataFile) {
+        List<Map> nodes = []
+        def thread = Thread.currentThread()
+        source.readHosts(dataFile, new Gson(), { root, node ->
+            assert Thread.currentThread() == thread
+            nodes << [nodename: node.nodename, attributes: new HashMap(node.attributes), tags: new HashSet(node.tags),
+                      vars: root.toString()]
+        } as BiConsumer)
+        nodes
+    }
+
+    /**
+     * @return the vars of a host as printed by gather-hosts.yml, with large mount and interface facts
+     */
+    static Map hostVars(String host) {
+        [
+                inventory_hostname         : host,
+                ansible_host               : '10.0.0.1',
+                ansible_user               : 'deploy',
+                group_names                : ['web', 'eu'],
+                ansible_lsb                : [description: 'Ubuntu 22.04.3 LTS', codename: 'jammy'],
+                ansible_distribution       : 'Ubuntu',
+                ansible_distribution_version: '22.04',
+                ansible_os_family          : 'Debian',
+                ansible_architecture       : 'x86_64',
+                ansible_kernel             : '5.15.0-91-generic',
+                ansible_date_time          : [tz: 'UTC', tz_offset: '+0000', epoch: '1700000000'],
+                ansible_processor          : ['0', 'GenuineIntel', 'Intel(R) Xeon(R)'],
+                ansible_processor_vcpus    : 8,
+                ansible_memtotal_mb        : 32000,
+                ansible_mounts             : (0..<2000).collect { i ->
+                    [mount: "/mnt/$i".toString(), device: "/dev/sd$i".toString(), fstype: 'ext4',
+                     size_total: 1000000000L * i, options: 'rw,relatime', uuid: UUID.randomUUID().toString()]
+                },
+                ansible_interfaces         : (0..<500).collect { "veth$it".toString() },
+                ansible_eth0               : [ipv4: [address: '10.0.0.1', netmask: '255.255.255.0'],
+                                              ipv6: (0..<50).collect { [address: "fe80::$it".toString(), scope: 'link'] }],
+                app_role                   : 'web',
+                app_ports                  : [80, 443],
+        ]
+    }
+
+    /**
+     * @return a source configured like configure() does for the parsing of the host vars
+     */
+    static AnsibleResourceModelSource source(boolean importInventoryVars, String rules) {
+        def source = new AnsibleResourceModelSource(null)
+        Map<String, String> attributeRules = new LinkedHashMap<>(AnsibleResourceModelSource.INTERESTING_ITEMS)
+        attributeRules.putAll(AnsibleAttributeMapping.parseRules(rules))
+        source.@attributeMapping = new AnsibleAttributeMapping(attributeRules)
+        source.@specialVars = new PrefixMatcher(['ansible_', 'group_names', 'inventory_hostname', 'facts', 'tmpdir'])
+        source.@importInventoryVars = importInventoryVars
+        source
+    }
+}
@@ -0,0 +1,31 @@
+package com.rundeck.plugins.ansible.util
+
+import com.dtolabs.rundeck.core.execution.ExecutionContext
+import spock.lang.Specification
+
+class AnsibleUtilSpec extends Specification {
+
+    def "the execution scope is the project and the execution id"() {
+        given:
+        def context = Stub(ExecutionContext) {
+            getFrameworkProject() >> 'project'
+            getDataContext() >> dataContext
+        }
+
+        expect:
+        AnsibleUtil.getExecutionScope(context) == scope
+
+        where:
+        dataContext               | scope
+        [job: [execid: '12']]     | 'project:12'
+        [job: [execid: '']]       | null
+        [job: [name: 'job']]      | null
+        [option: [a: 'b']]        | null
+        null                      | null
+    }
+
+    def "there is no execution scope without a context"() {
+        expect:
+        AnsibleUtil.getExecutionScope(null) == null
+    }
+}
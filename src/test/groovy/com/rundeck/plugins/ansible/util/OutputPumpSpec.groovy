@@ -0,0 +1,165 @@
+package com.rundeck.plugins.ansible.util
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class OutputPumpSpec extends Specification {
+
+    def "lines of every stream are queued on the channel"() {
+        given:
+        def stdout = new ByteArrayInputStream('one\ntwo\n'.bytes)
+        def stderr = new ByteArrayInputStream('warning\r\n'.bytes)
+
+        when:
+        def channel = OutputPump.getInstance().register(OutputPump.DEFAULT_CAPACITY, stdout, stderr)
+        def lines = poll(channel, 3)
+        def remaining = channel.close()
+
+        then:
+        lines as Set == ['one', 'two', 'warning'] as Set
+        lines.indexOf('one') < lines.indexOf('two')
+        remaining == []
+    }
+
+    def "closing the channel returns the lines not polled and the last partial line"() {
+        given:
+        def stdout = new ByteArrayInputStream('one\ntwo\nlast'.bytes)
+
+        when:
+        def channel = OutputPump.getInstance().register(OutputPump.DEFAULT_CAPACITY, stdout)
+        def lines = poll(channel, 1)
+        def remaining = channel.close()
+
+        then:
+        lines + remaining == ['one', 'two', 'last']
+    }
+
+    def "a full channel keeps the order of the lines"() {
+        given:
+        def output = (1..50).collect { "line $it".toString() }
+        def stdout = new ByteArrayInputStream((output.join('\n') + '\n').bytes)
+
+        when:
+        def channel = OutputPump.getInstance().register(2, stdout)
+        def lines = poll(channel, 50)
+        channel.close()
+
+        then:
+        lines == output
+    }
+
+    def "the pump thread stops without channels and starts again with the next one"() {
+        given:
+        def channel = OutputPump.getInstance().register(OutputPump.DEFAULT_CAPACITY, new ByteArrayInputStream('one\n'.bytes))
+        poll(channel, 1)
+        channel.close()
+
+        when:
+        def deadline = System.currentTimeMillis() + 5000
+        while (pumpRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        then:
+        !pumpRunning()
+
+        when:
+        channel = OutputPump.getInstance().register(OutputPump.DEFAULT_CAPACITY, new ByteArrayInputStream('two\n'.bytes))
+
+        then:
+        poll(channel, 1) == ['two']
+
+        cleanup:
+        channel?.close()
+    }
+
+    @Timeout(300)
+    def "the lines of many concurrent processes reach their own channel in order"() {
+        given:
+        def processes = (1..500).collect { id ->
+            new ProcessBuilder('sh', '-c', "i=1; while [ \$i -le 200 ]; do echo \"$id \$i\"; i=\$((i+1)); done; echo \"$id done\" >&2")
+                    .start()
+        }
+        def executor = Executors.newFixedThreadPool(processes.size())
+
+        when:
+        def results = processes.collect { process ->
+            def channel = OutputPump.getInstance().register(8, process.inputStream, process.errorStream)
+            executor.submit({ drain(process, channel) } as Callable<List<String>>)
+        }*.get()
+
+        then:
+        results.eachWithIndex { lines, i ->
+            def id = i + 1
+            assert lines.findAll { !it.endsWith(' done') } == (1..200).collect { "$id $it".toString() }
+            assert lines.contains("$id done".toString())
+        }
+        processes.every { it.waitFor() == 0 }
+
+        cleanup:
+        executor?.shutdownNow()
+    }
+
+    @Timeout(60)
+    def "a full channel blocks the process on its output until the lines are polled"() {
+        given:
+        def process = new ProcessBuilder('sh', '-c',
+                'i=1; while [ $i -le 20000 ]; do echo "line $i of the output of a process writing more than a pipe holds"; i=$((i+1)); done')
+                .start()
+        def channel = OutputPump.getInstance().register(4, process.inputStream)
+
+        when:
+        def finished = process.waitFor(2, TimeUnit.SECONDS)
+
+        then:
+        !finished
+
+        when:
+        def lines = drain(process, channel)
+
+        then:
+        lines.size() == 20000
+        lines.first() == 'line 1 of the output of a process writing more than a pipe holds'
+        lines.last() == 'line 20000 of the output of a process writing more than a pipe holds'
+        process.waitFor() == 0
+    }
+
+    /**
+     * Reads the channel of a process like a run does, until the process exited.
+     */
+    private static List<String> drain(Process process, OutputPump.Channel channel) {
+        List<String> lines = []
+        try {
+            while (process.alive) {
+                String line = channel.poll(50, TimeUnit.MILLISECONDS)
+                if (line != null) {
+                    lines << line
+                }
+            }
+            lines.addAll(channel.close())
+        } finally {
+            channel.cancel()
+        }
+        lines
+    }
+
+    private static boolean pumpRunning() {
+        Thread.getAllStackTraces().keySet().any { it.name == 'ansible-output-pump' && it.alive }
+    }
+
+    private static List<String> poll(OutputPump.Channel channel, int count) {
+        List<String> lines = []
+        while (lines.size() < count) {
+            String line = channel.poll(5, TimeUnit.SECONDS)
+            if (line == null) {
+                break
+            }
+            lines << line
+        }
+        lines
+    }
+}